@@ -0,0 +1,22 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 管理接口配置（application.yaml中hmdp.admin前缀）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.admin")
+public class AdminProperties {
+
+    /**
+     * 管理员用户id，只有这些用户登录后可以调用管理接口，为空时管理接口全部拒绝
+     */
+    private Set<Long> userIds = new HashSet<>();
+}
@@ -0,0 +1,303 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 缓存配置（application.yaml中hmdp.cache前缀）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * JVM本地缓存（CacheClient的一级缓存）配置
+     */
+    private Local local = new Local();
+
+    /**
+     * 布隆过滤器（防止缓存穿透）配置
+     */
+    private Bloom bloom = new Bloom();
+
+    /**
+     * 缓存未命中时，同一节点上等待其它线程加载同一个key的超时时间（毫秒），超时后再查一次redis，仍未命中则报错
+     */
+    private long singleFlightTimeoutMs = 3000;
+
+    /**
+     * 互斥锁重建时，等待其它节点释放锁的最长时间（毫秒），超时后报错；应小于singleFlightTimeoutMs
+     */
+    private long mutexWaitMs = 2000;
+
+    /**
+     * 缓存值编解码配置
+     */
+    private Codec codec = new Codec();
+
+    /**
+     * 逻辑过期缓存的提前刷新配置
+     */
+    private EarlyRefresh earlyRefresh = new EarlyRefresh();
+
+    /**
+     * 缓存重建线程池配置
+     */
+    private Rebuild rebuild = new Rebuild();
+
+    /**
+     * 启动预热配置
+     */
+    private Warmup warmup = new Warmup();
+
+    /**
+     * 热点key探测配置
+     */
+    private HotKey hotKey = new HotKey();
+
+    /**
+     * 缓存失效（删除）配置
+     */
+    private Invalidation invalidation = new Invalidation();
+
+    @Data
+    public static class Invalidation {
+        /**
+         * 一个pipeline最多删除的key数
+         */
+        private int batchSize = 100;
+        /**
+         * 凑批等待时间（毫秒），0表示不等待，只合并排队中的key
+         */
+        private long lingerMs = 0;
+        /**
+         * 排队的key数上限，队列满时在调用线程中直接删除
+         */
+        private int queueCapacity = 10000;
+        /**
+         * 延迟双删：第一次删除后再删除一次的延迟（毫秒），清除并发读取在提交前读到旧数据后回填的缓存，0表示不开启
+         */
+        private long doubleDeleteDelayMs = 500;
+        /**
+         * 删除失败（redis不可用）时的重试次数
+         */
+        private int retries = 3;
+        /**
+         * 重试间隔（毫秒）
+         */
+        private long retryDelayMs = 1000;
+        /**
+         * 关闭时等待队列中的key删除完成的时间（毫秒）
+         */
+        private long shutdownTimeoutMs = 5000;
+    }
+
+    @Data
+    public static class HotKey {
+        /**
+         * 是否开启热点key探测，热点key的redis值在本地保存短时间的副本
+         */
+        private boolean enabled = true;
+        /**
+         * 读取的抽样比例，1为每次读取都统计；小于1时按比例放大计数
+         */
+        private double sampleRate = 1.0;
+        /**
+         * count-min sketch的行数（哈希函数个数）
+         */
+        private int depth = 4;
+        /**
+         * count-min sketch每行的计数器个数，向上取2的幂
+         */
+        private int width = 8192;
+        /**
+         * 统计窗口（毫秒），每个窗口结束时清零计数、判断降级
+         */
+        private long windowMs = 5000;
+        /**
+         * 一个窗口内读取次数达到该值的key升级为热点
+         */
+        private long threshold = 1000;
+        /**
+         * 热点一个窗口内的读取次数低于threshold * demoteRatio时降级
+         */
+        private double demoteRatio = 0.5;
+        /**
+         * 热点key数量上限，已满时超过阈值的key在窗口结束时替换最冷的热点
+         */
+        private int topK = 100;
+        /**
+         * 热点key本地副本的过期时间（毫秒），也是漏收失效通知时的最长不一致时间
+         */
+        private long localTtlMs = 2000;
+    }
+
+    @Data
+    public static class Warmup {
+        /**
+         * 是否在启动时预热，预热完成前节点不报告就绪（readiness）
+         */
+        private boolean enabled = true;
+        /**
+         * 预热销量最高的商铺数，0表示不按销量预热
+         */
+        private int hotShops = 1000;
+        /**
+         * 额外预热的商铺id（如运营活动中的商铺）
+         */
+        private List<Long> shopIds = new ArrayList<>();
+        /**
+         * 商铺缓存的写入方式：ttl（与queryWithMutex/queryWithPassThrough一致）、logical（逻辑过期，与queryWithLogicalExpire一致）
+         */
+        private String shopMode = "ttl";
+        /**
+         * 是否预热商铺类型列表
+         */
+        private boolean shopTypes = true;
+        /**
+         * 是否重建商铺的geo集合（按类型）
+         */
+        private boolean geo = true;
+        /**
+         * 每页从数据库读取的行数
+         */
+        private int pageSize = 500;
+        /**
+         * 并行读取的线程数
+         */
+        private int threads = 4;
+    }
+
+    @Data
+    public static class Rebuild {
+        /**
+         * 重建线程数
+         */
+        private int threads = 10;
+        /**
+         * 排队的key数上限
+         */
+        private int queueCapacity = 256;
+        /**
+         * 队列满时的处理：discard（放弃，继续返回旧数据）、caller-runs（在请求线程中重建）
+         */
+        private String rejection = "discard";
+        /**
+         * 关闭时等待执行中的重建完成的时间（毫秒）
+         */
+        private long shutdownTimeoutMs = 5000;
+    }
+
+    @Data
+    public static class EarlyRefresh {
+        /**
+         * 是否开启提前刷新（XFetch），关闭时只在逻辑过期后重建
+         */
+        private boolean enabled = true;
+        /**
+         * 提前程度系数，越大越早刷新，1为算法推荐值
+         */
+        private double beta = 1.0;
+        /**
+         * 缓存值中没有重建耗时（预热写入或旧数据）时使用的耗时（毫秒）
+         */
+        private long defaultRebuildMs = 100;
+    }
+
+    @Data
+    public static class Codec {
+        /**
+         * 写入使用的codec：json、smile（二进制），读取时按数据中的codec编号解码，可以随时切换
+         */
+        private String type = "smile";
+        /**
+         * 编码后超过该字节数时deflate压缩，0表示不压缩
+         */
+        private int compressThreshold = 1024;
+    }
+
+    @Data
+    public static class Local {
+        /**
+         * 是否开启本地缓存
+         */
+        private boolean enabled = true;
+        /**
+         * 开启本地缓存的key前缀，未列出的前缀直接读redis
+         */
+        private List<Prefix> caches = new ArrayList<>();
+    }
+
+    @Data
+    public static class Prefix {
+        /**
+         * key前缀，与CacheClient查询时传入的keyPrefix一致，例如 cache:shop:
+         */
+        private String prefix;
+        /**
+         * 最多缓存的key数量
+         */
+        private long maxSize = 10000;
+        /**
+         * 写入后的过期时间（秒），也是漏收失效广播时脏数据的最长存活时间
+         */
+        private long ttlSeconds = 60;
+    }
+
+    @Data
+    public static class Bloom {
+        /**
+         * 是否开启布隆过滤器
+         */
+        private boolean enabled = true;
+        /**
+         * 是否在本地保存位图副本，开启后判断时不访问redis
+         */
+        private boolean localSnapshot = false;
+        /**
+         * 检查间隔（毫秒）：刷新位图版本和本地副本，估算误判率，超过rebuildFpp时重建
+         */
+        private long checkIntervalMs = 60000;
+        /**
+         * 重建后旧位图的保留时间（秒），需大于checkIntervalMs，期间还没刷新的节点继续使用旧位图
+         */
+        private long graceSeconds = 600;
+        /**
+         * 过滤器列表
+         */
+        private List<Filter> filters = new ArrayList<>();
+    }
+
+    @Data
+    public static class Filter {
+        /**
+         * 过滤器名称，redis key为 bloom:{name}:*
+         */
+        private String name;
+        /**
+         * 构建时读取id的表（主键为自增id）
+         */
+        private String table;
+        /**
+         * CacheClient查询时使用的key前缀，配置后查询缓存前先判断id是否存在
+         */
+        private String keyPrefix;
+        /**
+         * 预计元素数量，构建时取它和表中行数的2倍中较大的值
+         */
+        private long expectedInsertions = 100000;
+        /**
+         * 期望误判率
+         */
+        private double fpp = 0.01;
+        /**
+         * 按位图中1的比例估算的误判率超过该值时重建
+         */
+        private double rebuildFpp = 0.03;
+    }
+}
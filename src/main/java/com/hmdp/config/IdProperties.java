@@ -0,0 +1,53 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 全局id生成配置（application.yaml中hmdp.id前缀）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.id")
+public class IdProperties {
+
+    /**
+     * 生成方式：redis（每个id一次INCR）、segment（号段，一次INCRBY预留一批序列号，在JVM内分配）、
+     * snowflake（本地生成，只在启动和心跳时访问redis）。
+     * 默认redis；segment模式下节点重启时未用完的号段被丢弃，id不再连续、不同节点分配的id也不再按时间先后递增，
+     * 确认业务不依赖id的连续和顺序后再通过hmdp.id.mode=segment开启
+     */
+    private String mode = "redis";
+
+    /**
+     * 号段模式每次预留的序列号个数
+     */
+    private int segmentSize = 1000;
+
+    /**
+     * 当前号段剩余比例低于该值时，后台预取下一个号段
+     */
+    private double prefetchRatio = 0.2;
+
+    /**
+     * snowflake模式配置
+     */
+    private Snowflake snowflake = new Snowflake();
+
+    @Data
+    public static class Snowflake {
+        /**
+         * worker id租约时长（毫秒），redis不可用超过该时长后停止生成id
+         */
+        private long leaseMs = 60000;
+        /**
+         * 租约续期间隔（毫秒）
+         */
+        private long heartbeatMs = 10000;
+        /**
+         * 允许的时钟回拨（秒）：回拨期间沿用上一次的时间戳继续生成，超过后拒绝生成直到时钟追上
+         */
+        private long maxBackwardSeconds = 5;
+    }
+}
@@ -1,7 +1,10 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -13,6 +16,12 @@ import javax.annotation.Resource;
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RateLimitProperties rateLimitProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private AdminProperties adminProperties;
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 注册登录拦截器
@@ -26,6 +35,16 @@ public class MvcConfig implements WebMvcConfigurer {
                          "/upload/**",
                          "/voucher/**"
                  )
+                .order(2);
+
+        // 注册管理接口拦截器，只允许配置的管理员调用
+        registry.addInterceptor(new AdminInterceptor(adminProperties))
+                .addPathPatterns("/voucher/seckill/*/stock", "/admin/**")
+                .order(3);
+
+        // 注册限流拦截器，在token刷新之后（需要登录用户）、登录校验之前执行
+        registry.addInterceptor(new RateLimitInterceptor(stringRedisTemplate, rateLimitProperties, meterRegistry))
+                .addPathPatterns("/**")
                 .order(1);
 
         // 注册token刷新拦截器，需要比登录拦截器先执行
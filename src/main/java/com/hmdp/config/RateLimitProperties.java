@@ -0,0 +1,64 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 接口限流配置（application.yaml中hmdp.rate-limit前缀）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.rate-limit")
+public class RateLimitProperties {
+
+    /**
+     * 是否开启限流
+     */
+    private boolean enabled = true;
+
+    /**
+     * 本地令牌桶数量上限，超过后清理已经回满的（空闲）令牌桶
+     */
+    private int maxLocalBuckets = 100000;
+
+    /**
+     * 限流规则，一个请求可以命中多条规则，任意一条拒绝即返回429
+     */
+    private List<Rule> rules = new ArrayList<>();
+
+    @Data
+    public static class Rule {
+        /**
+         * 规则名称，用于redis key和拒绝计数的tag
+         */
+        private String name;
+        /**
+         * 接口路径（Ant风格，可带路径变量），例如 /voucher-order/seckill/{id}
+         */
+        private String pattern;
+        /**
+         * 限流维度：user（登录用户，未登录按ip）、ip，其它值表示pattern中的路径变量名（例如id即按优惠券限流）
+         */
+        private String dimension = "user";
+        /**
+         * 本地令牌桶每秒生成的令牌数，0表示不做本地限流
+         */
+        private double localRate;
+        /**
+         * 本地令牌桶容量（允许的突发请求数）
+         */
+        private int localBurst = 1;
+        /**
+         * 全局滑动窗口内允许的请求数（redis，所有节点共享），0表示不做全局限流
+         */
+        private long globalLimit;
+        /**
+         * 全局滑动窗口长度（毫秒）
+         */
+        private long globalWindowMs = 1000;
+    }
+}
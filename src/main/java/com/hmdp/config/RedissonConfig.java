@@ -1,17 +1,28 @@
 package com.hmdp.config;
 
+import cn.hutool.core.util.StrUtil;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class RedissonConfig {
+    // 默认沿用原来的redis地址，压测等场景可以通过配置覆盖
+    @Value("${hmdp.redisson.address:redis://43.140.212.19:6379}")
+    private String address;
+    @Value("${hmdp.redisson.password:zxh10.}")
+    private String password;
+    @Value("${hmdp.redisson.database:1}")
+    private int database;
+
     @Bean
     public RedissonClient redissonClient(){
         Config config = new Config();
-        config.useSingleServer().setAddress("redis://43.140.212.19:6379").setPassword("zxh10.").setDatabase(1);
+        config.useSingleServer().setAddress(address)
+                .setPassword(StrUtil.emptyToNull(password)).setDatabase(database);
         return Redisson.create(config);
     }
 
@@ -0,0 +1,218 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 秒杀相关配置（application.yaml中hmdp.seckill前缀）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 订单消息队列消费配置
+     */
+    private Order order = new Order();
+
+    /**
+     * 本地售罄标记的有效期（秒），过期后重新走一次redis确认，防止漏收补货广播导致一直拒绝
+     */
+    private long soldOutRecheckSec = 30;
+
+    /**
+     * 秒杀券预热配置
+     */
+    private Preheat preheat = new Preheat();
+
+    /**
+     * 订单pending消息恢复配置
+     */
+    private Recovery recovery = new Recovery();
+
+    /**
+     * 订单stream保留与归档配置
+     */
+    private Retention retention = new Retention();
+
+    /**
+     * 订单链路监控配置
+     */
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 超时未支付订单取消配置
+     */
+    private Cancel cancel = new Cancel();
+
+    @Data
+    public static class Order {
+        /**
+         * 是否开启批量消费（一次XREADGROUP读取多条，批量落库、批量ACK）
+         */
+        private boolean batchEnabled = false;
+        /**
+         * 每批最多读取的消息条数
+         */
+        private int batchSize = 100;
+        /**
+         * 凑批的最长等待时间（毫秒），超过该时间不足一批也直接落库
+         */
+        private long batchLingerMs = 200;
+        /**
+         * 吞吐量统计日志的输出间隔（秒）
+         */
+        private long statsIntervalSec = 10;
+        /**
+         * 订单stream分区数，1表示只使用stream.orders一个队列（所有节点必须一致）
+         */
+        private int partitions = 1;
+        /**
+         * 分区路由依据：user（按userId取模）或voucher（按voucherId取模）
+         */
+        private String partitionBy = "user";
+        /**
+         * 每个节点的消费线程数，每个线程是消费者组中一个独立命名的消费者
+         */
+        private int consumerThreads = 1;
+        /**
+         * 节点标识，集群内唯一且重启后不变（消费者名称由它派生），为空时使用 hostname:server.port
+         */
+        private String nodeId;
+        /**
+         * 订单落库方式：lock（redisson锁 + count查询）或 idempotent（唯一索引幂等insert，无锁，可直接重放）
+         */
+        private String persistMode = "lock";
+    }
+
+    @Data
+    public static class Preheat {
+        /**
+         * 提前多少分钟预热即将开始的秒杀券
+         */
+        private long leadMinutes = 10;
+        /**
+         * 预热任务执行间隔（毫秒）
+         */
+        private long intervalMs = 60000;
+    }
+
+    @Data
+    public static class Recovery {
+        /**
+         * 扫描pending list的间隔（毫秒）
+         */
+        private long intervalMs = 5000;
+        /**
+         * 消息空闲超过该时间才会被认领（毫秒），也是第一次重试的退避时间，需大于一批订单的正常落库耗时
+         */
+        private long minIdleMs = 10000;
+        /**
+         * 指数退避的最大等待时间（毫秒）
+         */
+        private long maxBackoffMs = 300000;
+        /**
+         * 最大投递次数，超过后转入死信stream
+         */
+        private int maxDeliveries = 5;
+        /**
+         * 每个分区每页扫描的pending消息数
+         */
+        private int scanCount = 100;
+        /**
+         * 每个分区每次最多扫描的页数，未扫完的下一次从停下的位置继续
+         */
+        private int scanPages = 10;
+    }
+
+    @Data
+    public static class Retention {
+        /**
+         * 是否定时裁剪已确认的订单消息
+         */
+        private boolean enabled = true;
+        /**
+         * 裁剪任务执行间隔（毫秒）
+         */
+        private long intervalMs = 60000;
+        /**
+         * 已确认的消息至少保留多久（分钟），便于排查
+         */
+        private long retainMinutes = 60;
+        /**
+         * 裁剪前是否把消息归档到本地文件
+         */
+        private boolean archiveEnabled = false;
+        /**
+         * 归档目录，每个stream每天一个文件
+         */
+        private String archiveDir = "archive/orders";
+        /**
+         * 归档时每次XRANGE读取的条数
+         */
+        private int archiveBatchSize = 1000;
+    }
+
+    @Data
+    public static class Metrics {
+        /**
+         * 采集消费者组lag和pending数的间隔（毫秒）
+         */
+        private long intervalMs = 5000;
+        /**
+         * redis低于7.0时XINFO GROUPS没有lag字段，改为XRANGE统计未投递的消息数，最多统计这么多条，0表示不统计（lag为-1）
+         */
+        private int lagScanLimit = 100;
+    }
+
+    @Data
+    public static class Cancel {
+        /**
+         * 是否自动取消超时未支付的订单（关闭后seckill.lua不再登记取消任务）。
+         * 还没有支付接口，开启后所有订单都会在超时后被取消，接入支付后再开启
+         */
+        private boolean enabled = false;
+        /**
+         * 下单后多久未支付取消（分钟）
+         */
+        private long timeoutMinutes = 15;
+        /**
+         * 时间轮最底层每格时长（毫秒），也是驱动线程的执行间隔
+         */
+        private long tickMs = 1000;
+        /**
+         * 时间轮每层格数
+         */
+        private int wheelSize = 60;
+        /**
+         * 从redis认领任务的间隔（毫秒）
+         */
+        private long pullIntervalMs = 5000;
+        /**
+         * 每次认领未来多久内到期的任务（毫秒），需大于pullIntervalMs，否则任务会晚于截止时间执行
+         */
+        private long pullHorizonMs = 60000;
+        /**
+         * 每次认领的最大任务数
+         */
+        private int pullCount = 1000;
+        /**
+         * 一个事务内取消的订单数
+         */
+        private int batchSize = 200;
+        /**
+         * 认领租约（毫秒），截止时间之后超过租约仍未完成的任务会被放回调度集合（节点宕机）
+         */
+        private long leaseMs = 300000;
+        /**
+         * 订单还没落库时的重试间隔（毫秒）
+         */
+        private long missingRetryMs = 10000;
+        /**
+         * 超过截止时间多久订单仍未落库就放弃取消并归还redis库存（分钟）
+         */
+        private long missingGiveUpMinutes = 10;
+    }
+}
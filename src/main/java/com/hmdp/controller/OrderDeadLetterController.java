@@ -0,0 +1,42 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.seckill.OrderDeadLetterQueue;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+/**
+ * 订单死信管理（AdminInterceptor校验，只有hmdp.admin.user-ids中的用户可以调用）
+ */
+@RestController
+@RequestMapping("/admin/order-dlq")
+public class OrderDeadLetterController {
+
+    @Resource
+    private OrderDeadLetterQueue orderDeadLetterQueue;
+
+    /**
+     * 查询死信订单消息
+     * @param count 最多返回条数
+     * @return 死信列表，total为死信总数
+     */
+    @GetMapping
+    public Result list(@RequestParam(value = "count", defaultValue = "100") Integer count) {
+        return Result.ok(orderDeadLetterQueue.list(count), orderDeadLetterQueue.size());
+    }
+
+    /**
+     * 重放死信订单消息到原分区stream
+     * @param id 死信id
+     * @return 无
+     */
+    @PostMapping("/{id}/replay")
+    public Result replay(@PathVariable("id") String id) {
+        if (!orderDeadLetterQueue.replay(id)) {
+            return Result.fail("死信不存在");
+        }
+        return Result.ok();
+    }
+}
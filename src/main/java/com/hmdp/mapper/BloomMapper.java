@@ -0,0 +1,26 @@
+package com.hmdp.mapper;
+
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * 构建布隆过滤器时读取表中的id
+ */
+public interface BloomMapper {
+
+    /**
+     * 表中的行数
+     * @param table 表名（来自配置）
+     */
+    long count(@Param("table") String table);
+
+    /**
+     * 按id分页读取
+     * @param table 表名（来自配置）
+     * @param lastId 上一页最后一个id
+     * @param limit 每页条数
+     * @return 大于lastId的id，升序
+     */
+    List<Long> selectIds(@Param("table") String table, @Param("lastId") long lastId, @Param("limit") int limit);
+}
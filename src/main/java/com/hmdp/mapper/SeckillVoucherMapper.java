@@ -2,7 +2,23 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
 
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    /**
+     * 一次扣减多个库存（乐观锁：库存不足时不更新）
+     * @param voucherId 优惠券id
+     * @param count 扣减数量
+     * @return 影响行数，0表示库存不足
+     */
+    int decreaseStock(@Param("voucherId") Long voucherId, @Param("count") int count);
+
+    /**
+     * 归还库存（取消订单）
+     * @param voucherId 优惠券id
+     * @param count 归还数量
+     * @return 影响行数
+     */
+    int increaseStock(@Param("voucherId") Long voucherId, @Param("count") int count);
 }
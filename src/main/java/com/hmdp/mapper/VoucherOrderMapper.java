@@ -2,7 +2,16 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 多行insert批量保存订单
+     * @param orders 订单列表（不能为空）
+     * @return 影响行数
+     */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
 }
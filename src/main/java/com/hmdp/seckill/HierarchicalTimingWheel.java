@@ -0,0 +1,152 @@
+package com.hmdp.seckill;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮（参考Kafka的TimingWheel）。
+ * 最底层每格tickMs、共wheelSize格，超出本层范围的任务放到上一层（上一层每格等于下一层一整圈），
+ * 上层的格子到期时把其中的任务重新插入，逐层下降，直到在最底层到期。
+ * 只有非空的格子进入按到期时间排序的队列，advance时只处理到期的格子，不需要逐格空转。
+ * 非线程安全，add/advance/drain只能由同一个驱动线程调用。
+ */
+public class HierarchicalTimingWheel<T> {
+    // 所有层中非空格子，按格子到期时间排序
+    private final PriorityQueue<Bucket> queue = new PriorityQueue<>(Comparator.comparingLong(b -> b.expiration));
+    private final Level root;
+    private int size;
+
+    public HierarchicalTimingWheel(long tickMs, int wheelSize, long startMs) {
+        this.root = new Level(tickMs, wheelSize, startMs);
+    }
+
+    /**
+     * 添加任务
+     * @return false表示任务已经到期（不足一格），调用方直接执行
+     */
+    public boolean add(T task, long deadline) {
+        if (!root.add(new Entry<>(task, deadline))) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * 推进时间到now，到期的任务交给expired
+     */
+    public void advance(long now, Consumer<T> expired) {
+        Bucket bucket;
+        while ((bucket = queue.peek()) != null && bucket.expiration <= now) {
+            queue.poll();
+            root.advanceClock(bucket.expiration);
+            for (Entry<T> entry : bucket.flush()) {
+                size--;
+                // 重新插入：落入更低的层，或者已经到期
+                if (!add(entry.task, entry.deadline)) {
+                    expired.accept(entry.task);
+                }
+            }
+        }
+        root.advanceClock(now);
+    }
+
+    /**
+     * 取出所有未到期的任务（停止时归还）
+     */
+    public void drain(Consumer<T> consumer) {
+        Bucket bucket;
+        while ((bucket = queue.poll()) != null) {
+            for (Entry<T> entry : bucket.flush()) {
+                consumer.accept(entry.task);
+            }
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static class Entry<T> {
+        final T task;
+        final long deadline;
+
+        Entry(T task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    private class Bucket {
+        // 格子到期时间，-1表示空
+        long expiration = -1;
+        List<Entry<T>> entries = new ArrayList<>();
+
+        void add(Entry<T> entry, long expiration) {
+            entries.add(entry);
+            // 空格子第一次放入任务（或被复用到新的一圈）时进入队列
+            if (this.expiration != expiration) {
+                this.expiration = expiration;
+                queue.offer(this);
+            }
+        }
+
+        List<Entry<T>> flush() {
+            List<Entry<T>> flushed = entries;
+            entries = new ArrayList<>();
+            expiration = -1;
+            return flushed;
+        }
+    }
+
+    private class Level {
+        final long tickMs;
+        final int wheelSize;
+        // 本层一圈的时长
+        final long interval;
+        final List<Bucket> buckets;
+        // 当前时间，按tickMs向下取整
+        long currentTime;
+        Level overflow;
+
+        Level(long tickMs, int wheelSize, long startMs) {
+            this.tickMs = tickMs;
+            this.wheelSize = wheelSize;
+            this.interval = tickMs * wheelSize;
+            this.currentTime = startMs - startMs % tickMs;
+            this.buckets = new ArrayList<>(wheelSize);
+            for (int i = 0; i < wheelSize; i++) {
+                buckets.add(new Bucket());
+            }
+        }
+
+        boolean add(Entry<T> entry) {
+            long deadline = entry.deadline;
+            if (deadline < currentTime + tickMs) {
+                return false;
+            }
+            if (deadline < currentTime + interval) {
+                long virtualId = deadline / tickMs;
+                buckets.get((int) (virtualId % wheelSize)).add(entry, virtualId * tickMs);
+                return true;
+            }
+            if (overflow == null) {
+                overflow = new Level(interval, wheelSize, currentTime);
+            }
+            return overflow.add(entry);
+        }
+
+        void advanceClock(long time) {
+            if (time >= currentTime + tickMs) {
+                currentTime = time - time % tickMs;
+                if (overflow != null) {
+                    overflow.advanceClock(currentTime);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.hmdp.seckill;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_CANCEL_CLAIMED_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_CANCEL_SCHEDULE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_CANCELLED;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_UNPAID;
+
+/**
+ * 超时未支付订单取消。
+ * seckill.lua下单时把取消任务写入zset seckill:cancel:schedule（score为截止时间），不需要扫描订单表。
+ * 各节点定时认领未来pullHorizonMs内到期的任务（移到seckill:cancel:claimed并带租约，节点宕机后任务会被放回），
+ * 放入本地分层时间轮，到期后按batchSize分批：一个事务内把仍未支付的订单改为已取消并归还DB库存，
+ * 提交后用seckill_cancel.lua原子地归还redis库存、移除一人一单集合中的用户，并清除各节点的售罄标记。
+ * 任务在脚本中才被移除，提交后宕机时任务租约到期后重新处理，DB中已取消的订单再执行一次脚本（幂等）。
+ */
+@Slf4j
+@Component
+public class OrderCancellationScheduler {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Resource
+    private OrderDeadLetterQueue orderDeadLetterQueue;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("seckill_cancel_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("seckill_cancel.lua"));
+        CANCEL_SCRIPT.setResultType(Long.class);
+    }
+
+    // 时间轮只由这一个线程驱动
+    private ScheduledExecutorService executor;
+    private HierarchicalTimingWheel<CancelTask> wheel;
+    private long lastPull;
+    private Counter cancelledCounter;
+
+    @PostConstruct
+    private void init() {
+        SeckillProperties.Cancel config = seckillProperties.getCancel();
+        if (!config.isEnabled()) {
+            return;
+        }
+        wheel = new HierarchicalTimingWheel<>(config.getTickMs(), config.getWheelSize(), System.currentTimeMillis());
+        cancelledCounter = Counter.builder("seckill.order.cancelled")
+                .description("超时取消的未支付订单数")
+                .register(meterRegistry);
+        Gauge.builder("seckill.order.cancel.waiting", this, s -> s.wheel.size())
+                .description("本节点时间轮中等待到期的取消任务数")
+                .register(meterRegistry);
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleWithFixedDelay(this::tick, config.getTickMs(), config.getTickMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        // 时间轮中未到期的任务放回调度集合，其它节点继续处理
+        List<CancelTask> waiting = new ArrayList<>();
+        wheel.drain(waiting::add);
+        for (CancelTask task : waiting) {
+            reschedule(task, task.deadline);
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            List<CancelTask> due = new ArrayList<>();
+            if (now - lastPull >= seckillProperties.getCancel().getPullIntervalMs()) {
+                pull(now, due);
+                lastPull = now;
+            }
+            wheel.advance(now, due::add);
+            int batchSize = seckillProperties.getCancel().getBatchSize();
+            for (int i = 0; i < due.size(); i += batchSize) {
+                cancel(due.subList(i, Math.min(i + batchSize, due.size())), now);
+            }
+        } catch (Exception e) {
+            log.error("取消超时订单异常", e);
+        }
+    }
+
+    // 认领即将到期的任务放入时间轮，已经到期的直接加入due；一次认领满了就继续认领
+    private void pull(long now, List<CancelTask> due) {
+        SeckillProperties.Cancel config = seckillProperties.getCancel();
+        while (true) {
+            @SuppressWarnings("unchecked")
+            List<String> claimed = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                    Arrays.asList(SECKILL_CANCEL_SCHEDULE_KEY, SECKILL_CANCEL_CLAIMED_KEY),
+                    String.valueOf(now), String.valueOf(config.getPullHorizonMs()),
+                    String.valueOf(config.getPullCount()), String.valueOf(config.getLeaseMs()));
+            if (claimed == null || claimed.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < claimed.size(); i += 2) {
+                CancelTask task = CancelTask.parse(claimed.get(i));
+                if (task == null) {
+                    stringRedisTemplate.opsForZSet().remove(SECKILL_CANCEL_CLAIMED_KEY, claimed.get(i));
+                    continue;
+                }
+                if (!wheel.add(task, task.deadline)) {
+                    due.add(task);
+                }
+            }
+            if (claimed.size() / 2 < config.getPullCount()) {
+                return;
+            }
+        }
+    }
+
+    private void cancel(List<CancelTask> tasks, long now) {
+        List<Long> ids = tasks.stream().map(t -> t.orderId).collect(Collectors.toList());
+        Map<Long, VoucherOrder> orders = voucherOrderService.listByIds(ids).stream()
+                .collect(Collectors.toMap(VoucherOrder::getId, Function.identity()));
+        List<VoucherOrder> unpaid = new ArrayList<>(tasks.size());
+        // DB中已取消但任务还在：上次取消事务提交后、执行seckill_cancel.lua前宕机，redis库存还没归还
+        List<VoucherOrder> restoring = new ArrayList<>();
+        List<String> finished = new ArrayList<>();
+        for (CancelTask task : tasks) {
+            VoucherOrder order = orders.get(task.orderId);
+            if (order == null) {
+                handleMissing(task, now);
+            } else if (order.getStatus() != null && order.getStatus() == ORDER_STATUS_UNPAID) {
+                unpaid.add(order);
+            } else if (order.getStatus() != null && order.getStatus() == ORDER_STATUS_CANCELLED) {
+                restoring.add(order);
+            } else {
+                // 已支付，任务结束
+                finished.add(task.member);
+            }
+        }
+        List<VoucherOrder> cancelled = unpaid.isEmpty()
+                ? Collections.emptyList() : voucherOrderService.cancelUnpaidOrders(unpaid);
+        // 事务已提交：归还redis库存并完成任务；脚本只在任务仍被本节点认领、用户还在一人一单集合中时归还，不会重复归还
+        Map<Long, CancelTask> tasksById = tasks.stream().collect(Collectors.toMap(t -> t.orderId, t -> t, (a, b) -> a));
+        List<VoucherOrder> restore = new ArrayList<>(cancelled);
+        restore.addAll(restoring);
+        List<String> args = new ArrayList<>(restore.size() * 3);
+        for (VoucherOrder order : restore) {
+            args.add(order.getVoucherId().toString());
+            args.add(order.getUserId().toString());
+            args.add(tasksById.get(order.getId()).member);
+        }
+        if (!args.isEmpty()) {
+            Long restored = stringRedisTemplate.execute(CANCEL_SCRIPT, Collections.singletonList(SECKILL_CANCEL_CLAIMED_KEY),
+                    args.toArray());
+            Set<Long> vouchers = restore.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+            if (restored != null && restored > 0) {
+                vouchers.forEach(soldOutRegistry::reset);
+            }
+            cancelledCounter.increment(cancelled.size());
+            log.info("取消超时未支付订单{}单, 补做redis归还{}单, 实际归还{}单, voucherIds={}",
+                    cancelled.size(), restoring.size(), restored, vouchers);
+        }
+        // 在查询和更新之间被支付的订单也在这里结束
+        Set<Long> cancelledIds = cancelled.stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        unpaid.stream().filter(o -> !cancelledIds.contains(o.getId()))
+                .forEach(o -> finished.add(tasksById.get(o.getId()).member));
+        if (!finished.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(SECKILL_CANCEL_CLAIMED_KEY, finished.toArray());
+        }
+    }
+
+    // 订单还在stream中没有落库：稍后重试，超过截止时间太久（例如消息进入了死信或被丢弃）则放弃，
+    // 放弃时归还seckill.lua预扣的redis库存并移除一人一单集合中的用户，否则这份库存永久丢失、用户也无法再抢。
+    // 消息还没被消费、还在pending list或死信中时继续等待，否则之后落库或重放时同一份库存会被卖两次
+    private void handleMissing(CancelTask task, long now) {
+        SeckillProperties.Cancel config = seckillProperties.getCancel();
+        if (now - task.deadline > TimeUnit.MINUTES.toMillis(config.getMissingGiveUpMinutes())) {
+            if (mayStillPersist(task)) {
+                reschedule(task, now + config.getMissingRetryMs());
+                return;
+            }
+            Long restored = stringRedisTemplate.execute(CANCEL_SCRIPT, Collections.singletonList(SECKILL_CANCEL_CLAIMED_KEY),
+                    String.valueOf(task.voucherId), String.valueOf(task.userId), task.member);
+            if (restored != null && restored > 0) {
+                soldOutRegistry.reset(task.voucherId);
+            }
+            log.warn("订单一直未落库，放弃超时取消并归还redis库存, orderId={}, voucherId={}, userId={}, restored={}",
+                    task.orderId, task.voucherId, task.userId, restored);
+            return;
+        }
+        reschedule(task, now + config.getMissingRetryMs());
+    }
+
+    // 按顺序检查：未投递或在pending list中 -> 死信 -> 数据库。
+    // 恢复任务先写死信再ACK、消费者先落库再ACK，按这个顺序检查不会在消息转移的间隙漏掉
+    private boolean mayStillPersist(CancelTask task) {
+        if (task.entryId == null) {
+            // 旧格式的任务没有消息id，无法确认
+            return false;
+        }
+        if (isUnacked(task.stream, task.entryId)) {
+            log.info("订单消息还未消费完成，继续等待, orderId={}, stream={}, id={}", task.orderId, task.stream, task.entryId);
+            return true;
+        }
+        if (orderDeadLetterQueue.contains(task.stream, task.entryId)) {
+            log.warn("订单消息在死信中，重放或删除前不归还库存, orderId={}, stream={}, id={}",
+                    task.orderId, task.stream, task.entryId);
+            return true;
+        }
+        // 检查消息期间被消费者落库
+        return voucherOrderService.getById(task.orderId) != null;
+    }
+
+    // 消息还没投递给消费者组，或已投递但没有ACK
+    private boolean isUnacked(String stream, String entryId) {
+        StreamInfo.XInfoGroup group;
+        try {
+            group = stringRedisTemplate.opsForStream().groups(stream).stream()
+                    .filter(g -> SECKILL_ORDER_GROUP.equals(g.groupName()))
+                    .findFirst().orElse(null);
+        } catch (Exception e) {
+            // stream不存在（消息已随stream删除）
+            log.warn("读取消费者组失败, stream={}", stream, e);
+            return false;
+        }
+        if (group == null || compareIds(entryId, group.lastDeliveredId()) > 0) {
+            return true;
+        }
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(stream, SECKILL_ORDER_GROUP, Range.closed(entryId, entryId), 1);
+        return !pending.isEmpty();
+    }
+
+    // 比较两个stream消息id（毫秒时间戳-序号）
+    private static int compareIds(String a, String b) {
+        int splitA = a.indexOf('-');
+        int splitB = b.indexOf('-');
+        int result = Long.compare(Long.parseLong(a.substring(0, splitA)), Long.parseLong(b.substring(0, splitB)));
+        return result != 0 ? result
+                : Long.compare(Long.parseLong(a.substring(splitA + 1)), Long.parseLong(b.substring(splitB + 1)));
+    }
+
+    // 先放回调度集合再移出已认领集合，中途宕机时任务不会丢
+    private void reschedule(CancelTask task, long score) {
+        stringRedisTemplate.opsForZSet().add(SECKILL_CANCEL_SCHEDULE_KEY, task.member, score);
+        stringRedisTemplate.opsForZSet().remove(SECKILL_CANCEL_CLAIMED_KEY, task.member);
+    }
+
+    // 取消任务，member格式：订单id:券id:用户id:截止时间:消息id:stream（旧格式没有最后两段）
+    private static class CancelTask {
+        final String member;
+        final long orderId;
+        final long voucherId;
+        final long userId;
+        final long deadline;
+        // 订单消息的id和所在stream，旧格式的任务为null
+        final String entryId;
+        final String stream;
+
+        private CancelTask(String member, long orderId, long voucherId, long userId, long deadline,
+                           String entryId, String stream) {
+            this.member = member;
+            this.orderId = orderId;
+            this.voucherId = voucherId;
+            this.userId = userId;
+            this.deadline = deadline;
+            this.entryId = entryId;
+            this.stream = stream;
+        }
+
+        static CancelTask parse(String member) {
+            // stream可能含有冒号（stream.orders:{partition}），最多拆成6段
+            String[] parts = member.split(":", 6);
+            if (parts.length != 4 && parts.length != 6) {
+                log.error("无法解析的订单取消任务: {}", member);
+                return null;
+            }
+            return new CancelTask(member, Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                    Long.parseLong(parts[2]), Long.parseLong(parts[3]),
+                    parts.length == 6 ? parts[4] : null, parts.length == 6 ? parts[5] : null);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.hmdp.seckill;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+
+/**
+ * 订单死信stream。超过重试次数的订单消息连同来源stream、原消息id、投递次数一起存入stream.orders.dlq，
+ * 排查后可以重放回原来的分区stream。
+ */
+@Slf4j
+@Component
+public class OrderDeadLetterQueue {
+    static final String ORIGIN_STREAM = "originStream";
+    static final String ORIGIN_ID = "originId";
+    static final String DELIVERIES = "deliveries";
+    static final String DEAD_TIME = "deadTime";
+    // contains每页读取的死信数
+    private static final int SCAN_COUNT = 100;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 转入死信
+     */
+    public void add(String stream, RecordId id, Map<String, String> values, long deliveries) {
+        Map<String, String> deadLetter = new LinkedHashMap<>(values);
+        deadLetter.put(ORIGIN_STREAM, stream);
+        deadLetter.put(ORIGIN_ID, id.getValue());
+        deadLetter.put(DELIVERIES, String.valueOf(deliveries));
+        deadLetter.put(DEAD_TIME, String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ_KEY, deadLetter);
+        log.error("订单消息超过重试次数，转入死信, stream={}, id={}, deliveries={}, values={}",
+                stream, id, deliveries, values);
+    }
+
+    /**
+     * 查询死信（按时间顺序）
+     */
+    public List<Map<String, Object>> list(int count) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DLQ_KEY, Range.unbounded(), RedisZSetCommands.Limit.limit().count(count));
+        List<Map<String, Object>> result = new ArrayList<>();
+        if (records == null) {
+            return result;
+        }
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", record.getId().getValue());
+            record.getValue().forEach((k, v) -> item.put(k.toString(), v));
+            result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * 死信中是否有来自stream的消息originId（逐页扫描，只在放弃超时取消前调用）
+     */
+    public boolean contains(String stream, String originId) {
+        Range<String> range = Range.unbounded();
+        while (true) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(SECKILL_ORDER_DLQ_KEY, range, RedisZSetCommands.Limit.limit().count(SCAN_COUNT));
+            if (records == null || records.isEmpty()) {
+                return false;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                Map<Object, Object> values = record.getValue();
+                if (stream.equals(values.get(ORIGIN_STREAM)) && originId.equals(values.get(ORIGIN_ID))) {
+                    return true;
+                }
+            }
+            if (records.size() < SCAN_COUNT) {
+                return false;
+            }
+            // 低版本redis的XRANGE不支持开区间，从最后一条的下一个id开始
+            range = Range.rightUnbounded(Range.Bound.inclusive(
+                    OrderStreamRecovery.nextId(records.get(records.size() - 1).getId().getValue())));
+        }
+    }
+
+    public Long size() {
+        return stringRedisTemplate.opsForStream().size(SECKILL_ORDER_DLQ_KEY);
+    }
+
+    /**
+     * 重放死信：原订单字段重新发送到来源stream，并删除死信。
+     * 超时取消在死信存在期间不会放弃订单；只有旧格式（没有消息id）的取消任务可能已经归还了redis库存，这类死信不应再重放
+     * @return 死信不存在时返回false
+     */
+    public boolean replay(String id) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DLQ_KEY, Range.closed(id, id));
+        if (records == null || records.isEmpty()) {
+            return false;
+        }
+        Map<Object, Object> values = new LinkedHashMap<>(records.get(0).getValue());
+        String stream = (String) values.remove(ORIGIN_STREAM);
+        values.remove(ORIGIN_ID);
+        values.remove(DELIVERIES);
+        values.remove(DEAD_TIME);
+        RecordId newId = stringRedisTemplate.opsForStream().add(stream, values);
+        stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_DLQ_KEY, id);
+        log.info("重放死信订单消息, dlqId={}, stream={}, newId={}", id, stream, newId);
+        return true;
+    }
+}
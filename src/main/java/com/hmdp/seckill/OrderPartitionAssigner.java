@@ -0,0 +1,275 @@
+package com.hmdp.seckill;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 订单stream分区分配。
+ * 每个节点定时把自己的nodeId心跳到zset中，存活节点按nodeId排序后，
+ * 分区p分配给第 p % 节点数 个节点；节点内再按 分区下标 % 线程数 分给各个消费线程。
+ * 分配结果只是意向，节点还要拿到分区租约（SET NX PX，每次心跳续期）才开始消费，
+ * 租约过期前其它节点拿不到该分区：节点数变化时各节点看到的成员列表短暂不一致，也不会有两个节点同时消费一个分区。
+ * 不再分给自己的分区先停止消费，下一次心跳（消费线程已切换）再释放租约；续期失败的分区立即停止消费，
+ * 心跳线程卡住时按本地记录的租约截止时间停止消费。
+ * nodeId重启后不变，消费者名称随之复用；已下线节点留下的、没有pending消息的消费者由分区持有者删除（XGROUP DELCONSUMER）。
+ */
+@Slf4j
+@Component
+public class OrderPartitionAssigner {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    private static final ScheduledExecutorService HEARTBEAT_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("partition_lease_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        // 比较持有者后删除，与锁的释放相同
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private String nodeId;
+    // 持有租约的分区（只在心跳线程中读写）
+    private final Set<Integer> leased = new TreeSet<>();
+    // 当前节点消费的分区（心跳线程整体替换，消费线程只读）
+    private volatile List<Integer> ownedPartitions = Collections.emptyList();
+    // 租约在本地的有效截止时间（System.nanoTime），按发起续期的时间计算，早于redis中的过期时间
+    private volatile long leaseDeadline = System.nanoTime();
+
+    @PostConstruct
+    private void init() {
+        String configured = seckillProperties.getOrder().getNodeId();
+        nodeId = StrUtil.isNotBlank(configured) ? configured : defaultNodeId();
+        createGroups();
+        // 不消费订单的节点不参与分区分配
+        if (seckillProperties.getOrder().getConsumerThreads() <= 0) {
+            return;
+        }
+        heartbeat();
+        // 心跳间隔取节点过期时间的1/3，错过一两次心跳不会被踢出
+        long interval = Math.max(1, SECKILL_CONSUMER_NODE_TTL / 3);
+        HEARTBEAT_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                heartbeat();
+            } catch (Exception e) {
+                log.error("订单消费节点心跳异常", e);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        HEARTBEAT_EXECUTOR.shutdownNow();
+        // 主动下线并释放租约，其它节点下一次心跳即可接管分区
+        ownedPartitions = Collections.emptyList();
+        stringRedisTemplate.opsForZSet().remove(SECKILL_CONSUMER_NODES_KEY, nodeId);
+        for (Integer partition : leased) {
+            release(partition);
+        }
+        leased.clear();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 分区对应的stream key，只有1个分区时保持原来的stream.orders
+     */
+    public static String streamKey(int partition, int partitions) {
+        return partitions <= 1 ? SECKILL_ORDER_STREAM_KEY : SECKILL_ORDER_STREAM_KEY + ":" + partition;
+    }
+
+    /**
+     * 所有分区的stream key
+     */
+    public List<String> allStreams() {
+        int partitions = seckillProperties.getOrder().getPartitions();
+        List<String> streams = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            streams.add(streamKey(p, partitions));
+        }
+        return streams;
+    }
+
+    /**
+     * 当前节点负责的所有stream key，租约在本地已过期时为空
+     */
+    public List<String> ownedStreams() {
+        int partitions = seckillProperties.getOrder().getPartitions();
+        List<String> streams = new ArrayList<>();
+        for (Integer partition : validPartitions()) {
+            streams.add(streamKey(partition, partitions));
+        }
+        return streams;
+    }
+
+    /**
+     * 第index个消费线程负责的stream key
+     * @param index 消费线程下标
+     * @param threads 节点消费线程数
+     */
+    public List<String> assignedStreams(int index, int threads) {
+        int partitions = seckillProperties.getOrder().getPartitions();
+        List<Integer> owned = validPartitions();
+        List<String> streams = new ArrayList<>();
+        for (int i = index; i < owned.size(); i += threads) {
+            streams.add(streamKey(owned.get(i), partitions));
+        }
+        return streams;
+    }
+
+    private List<Integer> validPartitions() {
+        return System.nanoTime() - leaseDeadline < 0 ? ownedPartitions : Collections.emptyList();
+    }
+
+    // 每个分区都创建消费者组（MKSTREAM），已存在时redis返回BUSYGROUP，忽略即可
+    private void createGroups() {
+        for (String stream : allStreams()) {
+            try {
+                stringRedisTemplate.opsForStream().createGroup(stream, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+            } catch (Exception e) {
+                log.debug("消费者组已存在, stream={}", stream);
+            }
+        }
+    }
+
+    private void heartbeat() {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long ttlMs = TimeUnit.SECONDS.toMillis(SECKILL_CONSUMER_NODE_TTL);
+        stringRedisTemplate.opsForZSet().add(SECKILL_CONSUMER_NODES_KEY, nodeId, now);
+        // 剔除超时未心跳的节点
+        stringRedisTemplate.opsForZSet().removeRangeByScore(SECKILL_CONSUMER_NODES_KEY, 0, now - ttlMs);
+        Set<String> members = stringRedisTemplate.opsForZSet().range(SECKILL_CONSUMER_NODES_KEY, 0, -1);
+        List<String> nodes = members == null ? new ArrayList<>() : new ArrayList<>(members);
+        if (!nodes.contains(nodeId)) {
+            nodes.add(nodeId);
+        }
+        Collections.sort(nodes);
+        int nodeIndex = nodes.indexOf(nodeId);
+        int partitions = seckillProperties.getOrder().getPartitions();
+        Set<Integer> desired = new HashSet<>();
+        for (int p = 0; p < partitions; p++) {
+            if (p % nodes.size() == nodeIndex) {
+                desired.add(p);
+            }
+        }
+        List<Integer> previous = ownedPartitions;
+        List<Integer> owned = new ArrayList<>();
+        for (int p = 0; p < partitions; p++) {
+            if (leased.contains(p)) {
+                if (!renew(p, ttlMs)) {
+                    leased.remove(p);
+                    log.warn("订单分区租约已丢失, node={}, 分区={}", nodeId, p);
+                } else if (desired.contains(p)) {
+                    owned.add(p);
+                } else if (!previous.contains(p)) {
+                    // 上一次心跳已停止消费，消费线程已切换到新的分区，释放租约交给新的节点
+                    release(p);
+                    leased.remove(p);
+                }
+                // 其余为刚分出去的分区：本次只停止消费，租约保留到下一次心跳
+            } else if (desired.contains(p) && acquire(p, ttlMs)) {
+                leased.add(p);
+                owned.add(p);
+            }
+        }
+        leaseDeadline = start + TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        if (!owned.equals(previous)) {
+            log.info("订单分区重新分配, node={}, 存活节点数={}, 分区={}", nodeId, nodes.size(), owned);
+            ownedPartitions = Collections.unmodifiableList(owned);
+        }
+        removeDeadConsumers(new HashSet<>(nodes), owned, partitions, ttlMs);
+    }
+
+    /**
+     * 删除持有分区中已下线节点的消费者：消费者名称为 节点标识-后缀，节点不在存活列表中、
+     * 没有pending消息（已被OrderStreamRecovery认领走）且空闲超过节点过期时间才删除
+     */
+    private void removeDeadConsumers(Set<String> liveNodes, List<Integer> owned, int partitions, long ttlMs) {
+        for (Integer partition : owned) {
+            String stream = streamKey(partition, partitions);
+            try {
+                StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(stream, SECKILL_ORDER_GROUP);
+                consumers.forEach(consumer -> {
+                    String name = consumer.consumerName();
+                    int split = name.lastIndexOf('-');
+                    String owner = split > 0 ? name.substring(0, split) : name;
+                    if (liveNodes.contains(owner) || consumer.pendingCount() > 0 || consumer.idleTimeMs() < ttlMs) {
+                        return;
+                    }
+                    stringRedisTemplate.opsForStream().deleteConsumer(stream, Consumer.from(SECKILL_ORDER_GROUP, name));
+                    log.info("删除已下线节点的消费者, stream={}, consumer={}", stream, name);
+                });
+            } catch (Exception e) {
+                log.warn("清理消费者失败, stream={}", stream, e);
+            }
+        }
+    }
+
+    private boolean acquire(int partition, long ttlMs) {
+        Boolean ok = stringRedisTemplate.opsForValue()
+                .setIfAbsent(SECKILL_PARTITION_LEASE_KEY + partition, nodeId, ttlMs, TimeUnit.MILLISECONDS);
+        return Boolean.TRUE.equals(ok);
+    }
+
+    private boolean renew(int partition, long ttlMs) {
+        Long ok = stringRedisTemplate.execute(RENEW_SCRIPT,
+                Collections.singletonList(SECKILL_PARTITION_LEASE_KEY + partition), nodeId, String.valueOf(ttlMs));
+        return ok != null && ok == 1;
+    }
+
+    private void release(int partition) {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(SECKILL_PARTITION_LEASE_KEY + partition), nodeId);
+        } catch (Exception e) {
+            log.warn("释放订单分区租约失败, 分区={}", partition, e);
+        }
+    }
+
+    // 主机名 + 端口：同一台机器上的多个实例不冲突，重启后不变
+    private String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return host + ":" + serverPort;
+    }
+}
@@ -0,0 +1,24 @@
+package com.hmdp.seckill;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * 异步下单链路监控汇总：GET /actuator/seckillorders
+ * 包含各分区的lag/pending、落库耗时分位数、端到端耗时、加锁失败和重复订单计数。
+ */
+@Component
+@Endpoint(id = "seckillorders")
+public class OrderPipelineEndpoint {
+    @Resource
+    private OrderPipelineMetrics orderPipelineMetrics;
+
+    @ReadOperation
+    public Map<String, Object> pipeline() {
+        return orderPipelineMetrics.snapshot();
+    }
+}
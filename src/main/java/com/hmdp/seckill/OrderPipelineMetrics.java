@@ -0,0 +1,250 @@
+package com.hmdp.seckill;
+
+import com.hmdp.config.SeckillProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 异步下单链路监控指标（micrometer，/actuator/metrics 查看，/actuator/seckillorders 汇总）：
+ * seckill.order.lag / seckill.order.pending / seckill.order.lag.age  消费者组落后条数、未ACK条数、最早未投递消息的等待时间（按分区，
+ *                              只由负责该分区的节点采集和发布）
+ * seckill.order.persist        落库耗时直方图（mode=single/batch，outcome=success/failure）
+ * seckill.order.batch.size     批量落库的批大小
+ * seckill.order.end-to-end     从写入stream（消息id中的时间戳）到落库ACK的耗时直方图
+ * seckill.order.lock.failures  一人一单加锁失败次数
+ * seckill.order.duplicates     重复订单（已落库或批内重复）被跳过的次数
+ */
+@Slf4j
+@Component
+public class OrderPipelineMetrics {
+    public static final String MODE_SINGLE = "single";
+    public static final String MODE_BATCH = "batch";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private OrderPartitionAssigner orderPartitionAssigner;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 本节点负责的stream -> 最近一次采集的值，由定时任务刷新，指标读取时不访问redis
+    private final Map<String, StreamGauges> streamGauges = new ConcurrentHashMap<>();
+
+    private Timer endToEnd;
+    private DistributionSummary batchSize;
+    private Counter lockFailures;
+    private Counter duplicates;
+
+    @PostConstruct
+    private void init() {
+        endToEnd = Timer.builder("seckill.order.end-to-end")
+                .description("订单从写入stream到落库ACK的耗时")
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        batchSize = DistributionSummary.builder("seckill.order.batch.size")
+                .description("批量落库的订单数")
+                .register(meterRegistry);
+        lockFailures = Counter.builder("seckill.order.lock.failures")
+                .description("一人一单加锁失败次数")
+                .register(meterRegistry);
+        duplicates = Counter.builder("seckill.order.duplicates")
+                .description("跳过的重复订单数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次落库耗时
+     * @param mode single/batch
+     * @param orders 本次落库的订单数
+     * @param success 是否成功（批量失败会回退逐条处理）
+     */
+    public void recordPersist(String mode, int orders, long nanos, boolean success) {
+        persistTimer(mode, success).record(nanos, TimeUnit.NANOSECONDS);
+        if (MODE_BATCH.equals(mode)) {
+            batchSize.record(orders);
+        }
+    }
+
+    /**
+     * 订单消息ACK后记录端到端耗时，起点取消息id中的毫秒时间戳（redis生成）
+     */
+    public void recordCommitted(RecordId id) {
+        long elapsed = System.currentTimeMillis() - id.getTimestamp();
+        endToEnd.record(Math.max(elapsed, 0), TimeUnit.MILLISECONDS);
+    }
+
+    public void lockFailure() {
+        lockFailures.increment();
+    }
+
+    public void duplicate(int count) {
+        duplicates.increment(count);
+    }
+
+    private Timer persistTimer(String mode, boolean success) {
+        // 同名同tag的Timer由registry缓存，重复builder返回同一个实例
+        return Timer.builder("seckill.order.persist")
+                .tag("mode", mode)
+                .tag("outcome", success ? "success" : "failure")
+                .description("订单落库耗时")
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 采集本节点负责分区的消费者组lag和pending数，分区移走后删除对应指标
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.metrics.interval-ms:5000}")
+    public void collect() {
+        List<String> owned = orderPartitionAssigner.ownedStreams();
+        streamGauges.entrySet().removeIf(entry -> {
+            if (owned.contains(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().remove();
+            return true;
+        });
+        for (String stream : owned) {
+            try {
+                collect(stream);
+            } catch (Exception e) {
+                log.warn("采集订单stream指标异常, stream={}", stream, e);
+            }
+        }
+    }
+
+    private void collect(String stream) {
+        StreamInfo.XInfoGroup group = stringRedisTemplate.opsForStream().groups(stream).stream()
+                .filter(g -> SECKILL_ORDER_GROUP.equals(g.groupName()))
+                .findFirst().orElse(null);
+        if (group == null) {
+            return;
+        }
+        StreamGauges gauges = streamGauges.computeIfAbsent(stream, StreamGauges::new);
+        gauges.pending.set(group.pendingCount());
+        // 最早一条未投递的消息
+        List<MapRecord<String, Object, Object>> next = stringRedisTemplate.opsForStream().range(stream,
+                Range.rightUnbounded(Range.Bound.exclusive(group.lastDeliveredId())),
+                RedisZSetCommands.Limit.limit().count(1));
+        if (next == null || next.isEmpty()) {
+            gauges.lag.set(0);
+            gauges.lagAge.set(0);
+            return;
+        }
+        gauges.lagAge.set(Math.max(System.currentTimeMillis() - next.get(0).getId().getTimestamp(), 0));
+        // redis 7.0起XINFO GROUPS直接返回lag
+        Object lag = group.getRaw().get("lag");
+        if (lag instanceof Number) {
+            gauges.lag.set(((Number) lag).longValue());
+            return;
+        }
+        // 低版本只数到lagScanLimit条（达到上限时表示至少这么多），0表示不统计，lag记为-1，以lag.age为准
+        int limit = seckillProperties.getMetrics().getLagScanLimit();
+        if (limit <= 0) {
+            gauges.lag.set(-1);
+            return;
+        }
+        List<MapRecord<String, Object, Object>> undelivered = stringRedisTemplate.opsForStream().range(stream,
+                Range.rightUnbounded(Range.Bound.exclusive(group.lastDeliveredId())),
+                RedisZSetCommands.Limit.limit().count(limit));
+        gauges.lag.set(undelivered == null ? 0 : undelivered.size());
+    }
+
+    /**
+     * 链路指标汇总，供 /actuator/seckillorders 使用
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Map<String, Object> streams = new LinkedHashMap<>();
+        for (Map.Entry<String, StreamGauges> entry : new TreeMap<>(streamGauges).entrySet()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("lag", entry.getValue().lag.get());
+            item.put("lagAgeMs", entry.getValue().lagAge.get());
+            item.put("pending", entry.getValue().pending.get());
+            streams.put(entry.getKey(), item);
+        }
+        result.put("streams", streams);
+        Map<String, Object> persist = new LinkedHashMap<>();
+        for (String mode : new String[]{MODE_SINGLE, MODE_BATCH}) {
+            persist.put(mode + ".success", summary(persistTimer(mode, true)));
+            persist.put(mode + ".failure", summary(persistTimer(mode, false)));
+        }
+        result.put("persist", persist);
+        result.put("batchSizeMean", batchSize.mean());
+        result.put("endToEnd", summary(endToEnd));
+        result.put("lockFailures", (long) lockFailures.count());
+        result.put("duplicates", (long) duplicates.count());
+        return result;
+    }
+
+    private Map<String, Object> summary(Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("count", snapshot.count());
+        item.put("meanMs", snapshot.mean(TimeUnit.MILLISECONDS));
+        item.put("maxMs", snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            item.put("p" + Math.round(percentile.percentile() * 100) + "Ms", percentile.value(TimeUnit.MILLISECONDS));
+        }
+        return item;
+    }
+
+    // 一个分区的lag/pending/lag.age指标，第一次采集时注册，分区移走时从MeterRegistry删除
+    private class StreamGauges {
+        final AtomicLong lag = new AtomicLong();
+        final AtomicLong pending = new AtomicLong();
+        final AtomicLong lagAge = new AtomicLong();
+        final List<Gauge> gauges = new ArrayList<>(3);
+
+        StreamGauges(String stream) {
+            gauges.add(Gauge.builder("seckill.order.lag", lag, AtomicLong::get)
+                    .tag("stream", stream)
+                    .description("消费者组还未读取的订单消息数，-1表示未统计")
+                    .register(meterRegistry));
+            gauges.add(Gauge.builder("seckill.order.pending", pending, AtomicLong::get)
+                    .tag("stream", stream)
+                    .description("已投递还未ACK的订单消息数")
+                    .register(meterRegistry));
+            gauges.add(Gauge.builder("seckill.order.lag.age", lagAge, AtomicLong::get)
+                    .tag("stream", stream)
+                    .baseUnit("milliseconds")
+                    .description("最早一条未读取的订单消息已等待的时间")
+                    .register(meterRegistry));
+        }
+
+        void remove() {
+            gauges.forEach(meterRegistry::remove);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.hmdp.seckill;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 订单pending消息恢复。
+ * 定时扫描本节点负责分区的pending list（包含所有消费者，也包括宕机节点留下的消息），
+ * 空闲时间超过按投递次数指数退避的等待时间后，用XCLAIM认领到恢复消费者并重新下单；
+ * 投递次数超过maxDeliveries的消息转入死信stream。消费线程失败时不再原地重试，始终继续消费新订单。
+ * 每次按scanCount分页读取pending list，从上次停下的位置继续，最多scanPages页，
+ * 还在退避中的旧消息不会挡住后面的消息，读到末尾后下一次从头开始。
+ * （spring-data-redis 2.6没有XAUTOCLAIM，这里用XPENDING + XCLAIM，顺带拿到每条消息的投递次数和空闲时间）
+ */
+@Slf4j
+@Component
+public class OrderStreamRecovery {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private OrderPartitionAssigner orderPartitionAssigner;
+    @Resource
+    private OrderDeadLetterQueue orderDeadLetterQueue;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private OrderPipelineMetrics orderPipelineMetrics;
+
+    // stream -> 下一次扫描的起始消息id，没有时从头开始
+    private final Map<String, String> cursors = new ConcurrentHashMap<>();
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.recovery.interval-ms:5000}")
+    public void recover() {
+        for (String stream : orderPartitionAssigner.ownedStreams()) {
+            try {
+                recover(stream);
+            } catch (Exception e) {
+                log.error("恢复pending订单异常, stream={}", stream, e);
+            }
+        }
+    }
+
+    private void recover(String stream) {
+        SeckillProperties.Recovery config = seckillProperties.getRecovery();
+        for (int page = 0; page < config.getScanPages(); page++) {
+            String start = cursors.getOrDefault(stream, "-");
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                    .pending(stream, SECKILL_ORDER_GROUP, Range.rightUnbounded(Range.Bound.inclusive(start)), config.getScanCount());
+            if (pendingMessages.isEmpty()) {
+                cursors.remove(stream);
+                return;
+            }
+            recover(stream, pendingMessages);
+            if (pendingMessages.size() < config.getScanCount()) {
+                // 已读到末尾，下一次从头开始
+                cursors.remove(stream);
+                return;
+            }
+            cursors.put(stream, nextId(pendingMessages.get(pendingMessages.size() - 1).getIdAsString()));
+        }
+    }
+
+    private void recover(String stream, PendingMessages pendingMessages) {
+        SeckillProperties.Recovery config = seckillProperties.getRecovery();
+        for (PendingMessage pending : pendingMessages) {
+            long deliveries = pending.getTotalDeliveryCount();
+            Duration backoff = backoff(deliveries);
+            // 还在退避时间内（或者消费者正在处理）
+            if (pending.getElapsedTimeSinceLastDelivery().compareTo(backoff) < 0) {
+                continue;
+            }
+            // 认领消息（带minIdle，其它节点或消费者刚处理过的不会被重复认领），投递次数+1
+            MapRecord<String, String, String> record = claim(stream, pending, backoff);
+            if (record == null) {
+                continue;
+            }
+            if (deliveries >= config.getMaxDeliveries()) {
+                orderDeadLetterQueue.add(stream, record.getId(), record.getValue(), deliveries);
+                stringRedisTemplate.opsForStream().acknowledge(stream, SECKILL_ORDER_GROUP, record.getId());
+                continue;
+            }
+            try {
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                voucherOrderService.handleVoucherOrder(voucherOrder);
+                stringRedisTemplate.opsForStream().acknowledge(stream, SECKILL_ORDER_GROUP, record.getId());
+                orderPipelineMetrics.recordCommitted(record.getId());
+            } catch (Exception e) {
+                log.warn("重试订单消息失败, stream={}, id={}, deliveries={}", stream, record.getId(), deliveries + 1, e);
+            }
+        }
+    }
+
+    // 紧跟在id之后的消息id（序号+1），作为下一页的闭区间起点，低版本redis的XPENDING不支持开区间
+    static String nextId(String id) {
+        int split = id.indexOf('-');
+        return id.substring(0, split) + "-" + (Long.parseLong(id.substring(split + 1)) + 1);
+    }
+
+    // 第n次投递失败后的等待时间：minIdle * 2^(n-1)，不超过maxBackoff
+    private Duration backoff(long deliveries) {
+        SeckillProperties.Recovery config = seckillProperties.getRecovery();
+        long shift = Math.min(Math.max(deliveries - 1, 0), 20);
+        return Duration.ofMillis(Math.min(config.getMinIdleMs() << shift, config.getMaxBackoffMs()));
+    }
+
+    private MapRecord<String, String, String> claim(String stream, PendingMessage pending, Duration minIdle) {
+        String recoveryConsumer = orderPartitionAssigner.getNodeId() + "-recovery";
+        List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(stream.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP,
+                        recoveryConsumer, RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(pending.getId())));
+        if (records == null || records.isEmpty()) {
+            return null;
+        }
+        return records.get(0).deserialize(RedisSerializer.string()).withStreamKey(stream);
+    }
+}
@@ -0,0 +1,227 @@
+package com.hmdp.seckill;
+
+import cn.hutool.core.date.DatePattern;
+import com.hmdp.config.SeckillProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 订单stream保留策略。
+ * seckill.lua的xadd不裁剪，stream会一直增长。这里定时计算每个分区可以安全裁剪的位置：
+ * 消费者组最早的pending消息和last-delivered-id中较小者（之前的消息都已ACK），
+ * 再保留最近retainMinutes的消息，用 XTRIM MINID ~ 近似裁剪（按宏节点删除，开销小）。
+ * 开启归档时，裁剪前先把要删除的消息按天追加到本地文件。
+ * 每个分区只由负责它的节点处理；stream长度和内存占用以指标 seckill.order.stream.length / memory 暴露，
+ * 也只由负责该分区的节点发布（分区移走后删除指标），死信stream由负责0号分区的节点发布。
+ */
+@Slf4j
+@Component
+public class OrderStreamRetention {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private OrderPartitionAssigner orderPartitionAssigner;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // spring-data-redis 2.6的XTRIM只支持MAXLEN，原生execute又无法解析整数回复，用脚本执行 XTRIM MINID 和 MEMORY USAGE
+    private static final DefaultRedisScript<Long> XTRIM_MINID_SCRIPT = new DefaultRedisScript<>(
+            "return redis.call('XTRIM', KEYS[1], 'MINID', '~', ARGV[1])", Long.class);
+    private static final DefaultRedisScript<Long> MEMORY_USAGE_SCRIPT = new DefaultRedisScript<>(
+            "return redis.call('MEMORY', 'USAGE', KEYS[1])", Long.class);
+
+    // 本节点发布指标的stream -> 最近一次统计的长度/内存（字节），由定时任务刷新，指标读取时不访问redis
+    private final Map<String, StreamStats> stats = new ConcurrentHashMap<>();
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.retention.interval-ms:60000}")
+    public void trim() {
+        SeckillProperties.Retention config = seckillProperties.getRetention();
+        List<String> owned = orderPartitionAssigner.ownedStreams();
+        List<String> published = new ArrayList<>(owned);
+        // 死信stream不裁剪，只统计
+        if (owned.contains(OrderPartitionAssigner.streamKey(0, seckillProperties.getOrder().getPartitions()))) {
+            published.add(SECKILL_ORDER_DLQ_KEY);
+        }
+        // 已经不归本节点的分区不再发布指标
+        stats.entrySet().removeIf(entry -> {
+            if (published.contains(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().remove();
+            return true;
+        });
+        for (String stream : owned) {
+            try {
+                if (config.isEnabled()) {
+                    trim(stream, config);
+                }
+            } catch (Exception e) {
+                log.error("裁剪订单stream异常, stream={}", stream, e);
+            }
+        }
+        for (String stream : published) {
+            try {
+                refreshStats(stream);
+            } catch (Exception e) {
+                log.error("统计订单stream异常, stream={}", stream, e);
+            }
+        }
+    }
+
+    private void trim(String stream, SeckillProperties.Retention config) throws IOException {
+        String safeId = safeTrimId(stream);
+        if (safeId == null) {
+            return;
+        }
+        // 保留最近retainMinutes的消息
+        long retainFrom = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(config.getRetainMinutes());
+        String trimId = min(safeId, retainFrom + "-0");
+        if (config.isArchiveEnabled()) {
+            archive(stream, trimId, config);
+        }
+        Long trimmed = stringRedisTemplate.execute(XTRIM_MINID_SCRIPT, Collections.singletonList(stream), trimId);
+        if (trimmed != null && trimmed > 0) {
+            log.info("裁剪订单stream, stream={}, minId={}, 删除{}条", stream, trimId, trimmed);
+        }
+    }
+
+    // 已ACK的消息边界：没有pending时为last-delivered-id，否则取最早的pending消息id
+    private String safeTrimId(String stream) {
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+        String lastDelivered = groups.stream()
+                .filter(group -> SECKILL_ORDER_GROUP.equals(group.groupName()))
+                .map(StreamInfo.XInfoGroup::lastDeliveredId)
+                .findFirst().orElse(null);
+        if (lastDelivered == null || "0-0".equals(lastDelivered)) {
+            return null;
+        }
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream().pending(stream, SECKILL_ORDER_GROUP);
+        if (pending == null || pending.getTotalPendingMessages() == 0) {
+            return lastDelivered;
+        }
+        return min(lastDelivered, pending.minMessageId());
+    }
+
+    // 把上次归档位置到trimId之前的消息追加到本地文件，每行：消息id 用户id 优惠券id 订单id
+    private void archive(String stream, String trimId, SeckillProperties.Retention config) throws IOException {
+        Object archived = stringRedisTemplate.opsForHash().get(SECKILL_ORDER_ARCHIVED_KEY, stream);
+        String from = archived == null ? "-" : archived.toString();
+        String lastId = null;
+        while (true) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(stream,
+                    Range.closed(from, trimId), RedisZSetCommands.Limit.limit().count(config.getArchiveBatchSize()));
+            if (records == null || records.isEmpty()) {
+                break;
+            }
+            StringBuilder lines = new StringBuilder();
+            for (MapRecord<String, Object, Object> record : records) {
+                String id = record.getId().getValue();
+                // range两端都是闭区间，跳过上次已归档的消息和trimId本身（trimId不会被裁剪）
+                if (id.equals(from) || id.equals(trimId)) {
+                    continue;
+                }
+                Map<Object, Object> values = record.getValue();
+                lines.append(id).append(' ')
+                        .append(values.get("userId")).append(' ')
+                        .append(values.get("voucherId")).append(' ')
+                        .append(values.get("id")).append('\n');
+                lastId = id;
+            }
+            if (lines.length() > 0) {
+                Files.write(archiveFile(stream, lastId, config), lines.toString().getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                stringRedisTemplate.opsForHash().put(SECKILL_ORDER_ARCHIVED_KEY, stream, lastId);
+            }
+            String next = records.get(records.size() - 1).getId().getValue();
+            if (next.equals(from) || next.equals(trimId) || records.size() < config.getArchiveBatchSize()) {
+                break;
+            }
+            from = next;
+        }
+    }
+
+    // 按消息时间戳所在日期分文件
+    private Path archiveFile(String stream, String id, SeckillProperties.Retention config) throws IOException {
+        long millis = Long.parseLong(id.substring(0, id.indexOf('-')));
+        LocalDate day = Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()).toLocalDate();
+        Path dir = Paths.get(config.getArchiveDir());
+        Files.createDirectories(dir);
+        return dir.resolve(stream + "-" + day.format(DatePattern.PURE_DATE_FORMATTER) + ".log");
+    }
+
+    private void refreshStats(String stream) {
+        Long length = stringRedisTemplate.opsForStream().size(stream);
+        Long memory = stringRedisTemplate.execute(MEMORY_USAGE_SCRIPT, Collections.singletonList(stream));
+        StreamStats streamStats = stats.computeIfAbsent(stream, StreamStats::new);
+        streamStats.length.set(length == null ? 0 : length);
+        streamStats.memory.set(memory == null ? 0 : memory);
+    }
+
+    // 比较两个stream消息id（毫秒时间戳-序号）
+    private static String min(String a, String b) {
+        String[] pa = a.split("-");
+        String[] pb = b.split("-");
+        int c = Long.compare(Long.parseLong(pa[0]), Long.parseLong(pb[0]));
+        if (c == 0) {
+            c = Long.compare(Long.parseLong(pa[1]), Long.parseLong(pb[1]));
+        }
+        return c <= 0 ? a : b;
+    }
+
+    // 一个stream的长度/内存指标，创建时注册，分区移走时从MeterRegistry删除
+    private class StreamStats {
+        final AtomicLong length = new AtomicLong();
+        final AtomicLong memory = new AtomicLong();
+        final Gauge lengthGauge;
+        final Gauge memoryGauge;
+
+        StreamStats(String stream) {
+            lengthGauge = Gauge.builder("seckill.order.stream.length", length, AtomicLong::get)
+                    .tag("stream", stream)
+                    .description("订单stream消息条数")
+                    .register(meterRegistry);
+            memoryGauge = Gauge.builder("seckill.order.stream.memory", memory, AtomicLong::get)
+                    .tag("stream", stream)
+                    .baseUnit("bytes")
+                    .description("订单stream占用的redis内存")
+                    .register(meterRegistry);
+        }
+
+        void remove() {
+            meterRegistry.remove(lengthGauge);
+            meterRegistry.remove(memoryGauge);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.hmdp.seckill;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_RESTOCK_EPOCH_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地售罄标记。
+ * 秒杀券卖完后，后续请求在JVM内直接拒绝，不再生成订单id、不再执行lua脚本。
+ * seckill.lua返回库存不足时标记本节点并广播给其它节点；补货时清除标记并广播。
+ * 补货时redis中的补货版本号（seckill:restock:epoch:{id}）加1，售罄标记带上执行脚本前读到的版本号，
+ * 版本号落后的标记（补货前的脚本结果、晚于补货广播到达的售罄广播）直接丢弃，不会在补货后继续拒绝请求。
+ * 标记带有效期，漏收补货广播时最多拒绝soldOutRecheckSec秒。
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    // voucherId -> 售罄标记
+    private final Map<Long, Mark> soldOut = new ConcurrentHashMap<>();
+    // voucherId -> 本节点已知的补货版本号，第一次使用时从redis读取
+    private final Map<Long, Long> epochs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        // 消息格式：voucherId:版本号
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+                    long[] body = parse(message.getBody());
+                    mark(body[0], body[1]);
+                },
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+                    long[] body = parse(message.getBody());
+                    restocked(body[0], body[1]);
+                },
+                new ChannelTopic(SECKILL_RESTOCK_CHANNEL));
+    }
+
+    /**
+     * 是否已售罄（本地判断，不访问redis）
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Mark mark = soldOut.get(voucherId);
+        if (mark == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - mark.markedAt > TimeUnit.SECONDS.toMillis(seckillProperties.getSoldOutRecheckSec())) {
+            // 标记过期，放一个请求去redis确认
+            soldOut.remove(voucherId, mark);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 本节点已知的补货版本号，执行seckill.lua之前读取，库存不足时传给markSoldOut
+     */
+    public long epoch(Long voucherId) {
+        Long epoch = epochs.get(voucherId);
+        if (epoch != null) {
+            return epoch;
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_RESTOCK_EPOCH_KEY + voucherId);
+        return epochs.merge(voucherId, value == null ? 0L : Long.parseLong(value), Math::max);
+    }
+
+    /**
+     * 标记售罄，本节点第一次标记时广播给其它节点
+     * @param epoch 执行脚本前读到的补货版本号，已经落后时不标记
+     */
+    public void markSoldOut(Long voucherId, long epoch) {
+        if (mark(voucherId, epoch)) {
+            log.info("秒杀券已售罄, voucherId={}", voucherId);
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId + ":" + epoch);
+        }
+    }
+
+    /**
+     * 补货后递增补货版本号并清除所有节点的售罄标记
+     */
+    public void reset(Long voucherId) {
+        Long epoch = stringRedisTemplate.opsForValue().increment(SECKILL_RESTOCK_EPOCH_KEY + voucherId);
+        restocked(voucherId, epoch);
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId + ":" + epoch);
+    }
+
+    // 版本号不落后时标记，返回是否为新标记
+    private boolean mark(Long voucherId, long epoch) {
+        if (epoch < epoch(voucherId)) {
+            return false;
+        }
+        Mark previous = soldOut.put(voucherId, new Mark(epoch));
+        // 标记之后才收到更新的补货版本号，撤销
+        if (epoch < epoch(voucherId)) {
+            soldOut.remove(voucherId);
+            return false;
+        }
+        return previous == null;
+    }
+
+    private void restocked(Long voucherId, long epoch) {
+        epochs.merge(voucherId, epoch, Math::max);
+        soldOut.computeIfPresent(voucherId, (id, mark) -> mark.epoch < epoch ? null : mark);
+    }
+
+    private long[] parse(byte[] body) {
+        String[] parts = new String(body, StandardCharsets.UTF_8).split(":");
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+    }
+
+    private static class Mark {
+        final long epoch;
+        final long markedAt = System.currentTimeMillis();
+
+        Mark(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
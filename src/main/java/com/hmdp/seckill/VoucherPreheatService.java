@@ -0,0 +1,129 @@
+package com.hmdp.seckill;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀券预热。
+ * 定时把即将开始（leadMinutes内）和正在进行的秒杀券的时间窗口写入redis hash（seckill.lua在同一次调用中校验），
+ * 同时缓存到本地，秒杀请求先在本地拒绝未开始/已结束的请求，热路径不再访问MySQL。
+ * 时间以redis的TIME为准（与seckill.lua一致）：每次预热时记录本地时钟与redis时钟的差值，本地校验按redis时间判断，
+ * 并留出CLOCK_TOLERANCE_MS的余量，边界附近的请求交给seckill.lua判断。
+ * 预热只写时间窗口，不写库存：redis库存只在创建秒杀券和补货时写入，DB库存落后于还没消费的订单消息，不能用来补库存。
+ */
+@Slf4j
+@Component
+public class VoucherPreheatService {
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    // 秒杀时间窗口校验结果，与seckill.lua返回值一致
+    public static final int WINDOW_OPEN = 0;
+    public static final int WINDOW_NOT_BEGIN = 3;
+    public static final int WINDOW_END = 4;
+
+    // 本地校验时间窗口的余量（毫秒），抵消读取redis时间的往返延迟
+    private static final long CLOCK_TOLERANCE_MS = 1000;
+
+    // voucherId -> 已预热的秒杀券
+    private final Map<Long, SeckillVoucher> preheated = new ConcurrentHashMap<>();
+    // redis时钟 - 本地时钟（毫秒）
+    private volatile long clockOffsetMs;
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.preheat.interval-ms:60000}")
+    public void preheatUpcoming() {
+        syncClock();
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .le("begin_time", now.plusMinutes(seckillProperties.getPreheat().getLeadMinutes()))
+                .gt("end_time", now)
+                .list();
+        for (SeckillVoucher voucher : vouchers) {
+            preheat(voucher);
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_STOCK_KEY + voucher.getVoucherId()))) {
+                // 不按DB库存自动补：DB库存没有扣减还在stream中的订单，补上会超卖
+                log.error("秒杀券redis库存丢失，需要按DB库存和未消费的订单消息核对后通过补货恢复, voucherId={}",
+                        voucher.getVoucherId());
+            }
+        }
+        // 清理已结束的秒杀券
+        preheated.values().removeIf(voucher -> voucher.getEndTime().isBefore(now));
+        log.debug("秒杀券预热完成, 本次预热{}张, 本地缓存{}张", vouchers.size(), preheated.size());
+    }
+
+    /**
+     * 预热单张秒杀券的时间窗口（在事务中创建秒杀券时，由调用方在事务提交后调用）
+     */
+    public void preheat(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        String key = SECKILL_VOUCHER_KEY + voucherId;
+        Map<String, String> info = new HashMap<>(2);
+        info.put("begin", String.valueOf(toEpochMilli(voucher.getBeginTime())));
+        info.put("end", String.valueOf(toEpochMilli(voucher.getEndTime())));
+        stringRedisTemplate.opsForHash().putAll(key, info);
+        stringRedisTemplate.expireAt(key, toDate(voucher.getEndTime().plusDays(SECKILL_VOUCHER_TTL)));
+        preheated.put(voucherId, voucher);
+    }
+
+    /**
+     * 本地校验秒杀时间窗口，未预热的券返回WINDOW_OPEN，交给seckill.lua校验
+     */
+    public int checkWindow(Long voucherId) {
+        SeckillVoucher voucher = preheated.get(voucherId);
+        if (voucher == null) {
+            return WINDOW_OPEN;
+        }
+        // 按redis时间判断，只拒绝明显在窗口之外的请求
+        long now = System.currentTimeMillis() + clockOffsetMs;
+        if (now < toEpochMilli(voucher.getBeginTime()) - CLOCK_TOLERANCE_MS) {
+            return WINDOW_NOT_BEGIN;
+        }
+        if (now > toEpochMilli(voucher.getEndTime()) + CLOCK_TOLERANCE_MS) {
+            return WINDOW_END;
+        }
+        return WINDOW_OPEN;
+    }
+
+    // 记录redis时钟与本地时钟的差值，读取失败时沿用上一次的值
+    private void syncClock() {
+        try {
+            long before = System.currentTimeMillis();
+            Long redisTime = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.time());
+            long after = System.currentTimeMillis();
+            if (redisTime != null) {
+                clockOffsetMs = redisTime - (before + after) / 2;
+            }
+        } catch (Exception e) {
+            log.warn("读取redis时间失败", e);
+        }
+    }
+
+    private long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private Date toDate(LocalDateTime time) {
+        return new Date(toEpochMilli(time));
+    }
+}
@@ -11,5 +11,7 @@ public interface IShopService extends IService<Shop> {
 
     Result update(Shop shop);
 
+    Result saveShop(Shop shop);
+
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
 }
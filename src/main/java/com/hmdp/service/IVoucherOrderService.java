@@ -5,10 +5,20 @@ import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
+    void handleVoucherOrder(VoucherOrder voucherOrder);
+
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    void createVoucherOrderIdempotent(VoucherOrder voucherOrder);
+
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    List<VoucherOrder> cancelUnpaidOrders(List<VoucherOrder> voucherOrders);
 }
@@ -1,19 +1,19 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -24,10 +24,18 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.BLOOM_BLOG;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 import static com.hmdp.utils.RedisConstants.FEED_KEY;
 
 @Service
@@ -39,6 +47,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private IFollowService followService;
+    @Resource
+    private RedisBloomFilter bloomFilter;
+    @Resource
+    private CacheClient cacheClient;
 
     @Override
     public Result queryHotBlog(Integer current) {
@@ -47,23 +59,25 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .orderByDesc("liked")
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         List<Blog> records = page.getRecords();
-        // 查询并设置当前页博客的相关用户信息和是否点赞信息
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 查询并设置当前页博客的相关用户信息（批量）和是否点赞信息
+        queryBlogUser(records);
+        records.forEach(this::isBlogLiked);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogById(Long id) {
+        // 布隆过滤器判断一定不存在的id不查数据库
+        if (!bloomFilter.mightContain(BLOOM_BLOG, id)){
+            return Result.fail("笔记不存在");
+        }
         // 查询blog
         Blog blog = getById(id);
         if (blog == null){
             return Result.fail("笔记不存在");
         }
         // 查询并设置当前页博客的相关用户信息
-        queryBlogUser(blog);
+        queryBlogUser(Collections.singletonList(blog));
         // 设置blog是否被点赞（前端点赞图标高亮与否）
         isBlogLiked(blog);
         return Result.ok(blog);
@@ -95,6 +109,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 存入redis缓存，采用sortedSet数据结构（按分数排序），实现点赞排行榜功能。 zadd key value score
             if (isSuccess){
                 stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
             }
         }else {
             // 更新DB，点赞-1
@@ -102,6 +117,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 移出redis缓存
             if (isSuccess){
                 stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
             }
         }
         return Result.ok();
@@ -122,17 +138,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         // 解析用户id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 查询用户 listByIds方法：where id in (ids)，in在数据库中查询的数据不会按ids排序，不满足需求
-        // 指定按id字段ids排序:where id in (ids) order by field(id,(ids))
-        //SELECT * FROM user
-        //WHERE id IN (id1, id2, ..., idn)
-        //ORDER BY FIELD(id, id1, id2, ..., idn)
-        String idStr = StrUtil.join(",", ids);//id1, id2, ..., idn
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 批量查询用户：一次MGET，未命中的listByIds（where id in (ids)）后回写缓存，
+        // in在数据库中查询的数据不会按ids排序，由CacheClient在内存中按ids排序（不再需要ORDER BY FIELD）
+        List<UserDTO> userDTOS = queryUserDTOs(ids);
         return Result.ok(userDTOS);
     }
 
@@ -149,6 +157,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("发送笔记失败");
         }
+        bloomFilter.add(BLOOM_BLOG, blog.getId());
         // 查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id=?
         List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
         // 推送笔记给每个粉丝的收件箱（SortedSet）(通过SortedSet缓存加速，并且SortedSet支持排序，
@@ -192,19 +201,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 minTime = time;
             }
         }
-        // 根据ids查询相关的blog,为了保持顺序：ORDER BY FIELD（）
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query()
-                .in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")")
-                .list();
+        // 根据ids批量查询相关的blog（缓存），保持收件箱中的顺序
+        List<Blog> blogs = cacheClient.queryBatch(CACHE_BLOG_KEY, ids, Blog.class, this::listByIds,
+                Blog::getId, CACHE_BLOG_TTL, TimeUnit.SECONDS);
         // 给blog设置完整的相 关信息
-        for (Blog blog : blogs) {
-            // 查询blog相关用户
-            queryBlogUser(blog);
-            // 设置blog是否被点赞（前端点赞图标高亮与否）
-            isBlogLiked(blog);
-        }
+        // 批量查询blog相关用户
+        queryBlogUser(blogs);
+        // 设置blog是否被点赞（前端点赞图标高亮与否）
+        blogs.forEach(this::isBlogLiked);
         // 封装返回数据
         ScrollResult scrollResult = new ScrollResult();
         scrollResult.setList(blogs);
@@ -214,13 +218,32 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
     /**
-     * 查询并设置blog的相关用户的name和icon
-     * @param blog blog
+     * 批量查询并设置blog的相关用户的name和icon
+     * @param blogs blogs
+     */
+    private void queryBlogUser(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = queryUserDTOs(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null){
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
+    /**
+     * 批量查询用户的id、昵称和头像。缓存中只存UserDTO，不写入手机号、密码等字段（redis、本地缓存和热点副本都会共享这些数据）。
+     * 目前没有修改昵称、头像的接口，缓存只依赖TTL过期；新增这类写路径时需要调用cacheClient.delete(CACHE_USER_KEY + id)
+     * @param ids 用户id
      */
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    private List<UserDTO> queryUserDTOs(List<Long> ids) {
+        return cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class,
+                userIds -> userService.listByIds(userIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toList()),
+                UserDTO::getId, CACHE_USER_TTL, TimeUnit.SECONDS);
     }
 }
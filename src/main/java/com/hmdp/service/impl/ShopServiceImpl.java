@@ -1,5 +1,4 @@
 package com.hmdp.service.impl;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
@@ -7,6 +6,7 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.SystemConstants;
 import lombok.NonNull;
 import org.springframework.data.geo.Distance;
@@ -33,10 +33,12 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private RedisBloomFilter bloomFilter;
 
     /**
      * 缓存穿透：1）将空值写入redis √
-     *          2）布隆过滤器
+     *          2）布隆过滤器 √（CacheClient中按key前缀判断）
      *                ......
      * 决缓存击穿:乐观锁/逻辑过期
      * @param id 商铺id
@@ -62,7 +64,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @return ok/fail
      */
     @Override
-    @Transactional //数据库更新和缓存删除为一个原子事务
+    @Transactional
     public Result update(Shop shop) {
         Long id = shop.getId();
         if (id == null) {
@@ -70,10 +72,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 更新数据库（先更新数据库后删除缓存比先删缓存后更新数据库更好）
         updateById(shop);
-        // 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 删除缓存（包括各节点的本地缓存），事务提交后才执行，回滚则不删除
+        cacheClient.delete(CACHE_SHOP_KEY + id);
         return Result.ok();
     }
+    /**
+     * 新增商铺，同时加入布隆过滤器
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        save(shop);
+        bloomFilter.add(BLOOM_SHOP, shop.getId());
+        return Result.ok(shop.getId());
+    }
+
     // 按距离查询商家，redis geo
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
@@ -111,9 +125,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr, distance);
         });
-        // 根据id查询shop(保持sortSet中的顺序)
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        // 根据id批量查询shop缓存(保持sortSet中的顺序)
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class, this::listByIds,
+                Shop::getId, CACHE_SHOP_TTL, TimeUnit.SECONDS);
         for (Shop shop : shops) {
             // distance不是数据库中的字段
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
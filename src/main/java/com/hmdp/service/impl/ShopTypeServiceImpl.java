@@ -1,21 +1,15 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.collection.ListUtil;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.CacheClient;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_Type_KEY;
 
@@ -23,35 +17,14 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_Type_KEY;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private CacheClient cacheClient;
     @Resource
     private ShopTypeMapper shopTypeMapper;
     @Override
     public List<ShopType> queryTypeList() {
-        // 查redis
-        List<String> jsonList = stringRedisTemplate.opsForList().range(CACHE_SHOP_Type_KEY, 0, -1);
-        if (jsonList != null && !jsonList.isEmpty()){
-            // 反序列化为List<ShopType>对象
-            List<ShopType> typeList = new ArrayList<>();
-            for (String jsonStr : jsonList) {
-                ShopType shop = JSONUtil.toBean(jsonStr, ShopType.class);
-                typeList.add(shop);
-            }
-            return typeList;
-        }
-        // 查数据库
-        List<ShopType> typeList = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
-        if (typeList == null){
-            return null;
-        }
-        // redis缓存，转为json存储list
-        List<String> jsonListToSaved = new ArrayList<>();
-        for (ShopType type : typeList) {
-            String jsonStr = JSONUtil.toJsonStr(type);
-            jsonListToSaved.add(jsonStr);
-        }
-        stringRedisTemplate.opsForList().rightPushAll(CACHE_SHOP_Type_KEY, jsonListToSaved);
-
-        return typeList;
+        // 查redis，整个列表编码后保存在一个key中，一次反序列化（升级前按list每个元素一个JSON保存，读取时自动迁移）
+        // 未命中时查数据库并写入redis
+        return cacheClient.queryList(CACHE_SHOP_Type_KEY, ShopType.class,
+                () -> shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort")));
     }
 }
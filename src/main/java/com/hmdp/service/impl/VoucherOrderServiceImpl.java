@@ -1,34 +1,46 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.seckill.OrderPartitionAssigner;
+import com.hmdp.seckill.OrderPipelineMetrics;
+import com.hmdp.seckill.SoldOutRegistry;
+import com.hmdp.seckill.VoucherPreheatService;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisWorker;
+import com.hmdp.utils.IdGenerator;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import static com.hmdp.utils.ErrorMessageConstants.*;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
 import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_LOCK_KEY;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_CANCELLED;
+import static com.hmdp.utils.SystemConstants.ORDER_STATUS_UNPAID;
 
 
 @Slf4j
@@ -40,11 +52,29 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private RedisWorker redisWorker;
+    private IdGenerator idGenerator;
 
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private OrderPartitionAssigner orderPartitionAssigner;
+
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private VoucherPreheatService voucherPreheatService;
+
+    @Resource
+    private OrderPipelineMetrics orderPipelineMetrics;
+
     // 静态加载seckill lua脚本，避免每次执行脚本时都要重新读取和解析脚本文件的开销
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT; //Long为返回值类型
     static {
@@ -53,26 +83,102 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    // 创建异步更新DB的线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    // 创建异步更新DB的线程池，每个线程是消费者组中一个独立命名的消费者
+    private ExecutorService seckillOrderExecutor;
     // 当前类初始化完毕执行该方法
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        int threads = seckillProperties.getOrder().getConsumerThreads();
+        // 消费线程数为0的节点只接收秒杀请求，不消费订单队列
+        if (threads <= 0) {
+            return;
+        }
+        seckillOrderExecutor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            if (seckillProperties.getOrder().isBatchEnabled()) {
+                seckillOrderExecutor.submit(new BatchVoucherOrderHandler(i, threads));
+            } else {
+                seckillOrderExecutor.submit(new VoucherOrderHandler(i, threads));
+            }
+        }
     }
+
+    @PreDestroy
+    private void destroy(){
+        if (seckillOrderExecutor != null) {
+            seckillOrderExecutor.shutdownNow();
+        }
+    }
+
+    // 消费线程公共部分：消费者命名、分区切换、多分区读取
+    private abstract class AbstractVoucherOrderHandler implements Runnable{
+        final int index;
+        final int threads;
+        // 消费者名称：节点标识-线程下标，保证集群内唯一
+        final Consumer consumer;
+        // 当前线程负责的分区stream
+        List<String> streams = Collections.emptyList();
+
+        AbstractVoucherOrderHandler(int index, int threads) {
+            this.index = index;
+            this.threads = threads;
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, orderPartitionAssigner.getNodeId() + "-" + index);
+        }
+
+        // 分区重新分配时，先把旧分区中本消费者的pending消息处理掉再切换，保证分区内顺序
+        boolean refreshStreams() {
+            List<String> assigned = orderPartitionAssigner.assignedStreams(index, threads);
+            if (!assigned.equals(streams)) {
+                for (String stream : streams) {
+                    if (!assigned.contains(stream)) {
+                        handlePendingList(stream, consumer);
+                    }
+                }
+                for (String stream : assigned) {
+                    if (!streams.contains(stream)) {
+                        handlePendingList(stream, consumer);
+                    }
+                }
+                streams = assigned;
+            }
+            return !streams.isEmpty();
+        }
+
+        // 一次XREADGROUP同时读取负责的所有分区
+        @SuppressWarnings("unchecked")
+        List<MapRecord<String, Object, Object>> read(int count, Duration block) {
+            StreamOffset<String>[] offsets = streams.stream()
+                    .map(stream -> StreamOffset.create(stream, ReadOffset.lastConsumed()))
+                    .toArray(StreamOffset[]::new);
+            return stringRedisTemplate.opsForStream().read(
+                    consumer,
+                    StreamReadOptions.empty().count(count).block(block),
+                    offsets
+            );
+        }
+
+        // 没有分到分区（节点数多于分区数）时空转等待下次分配
+        void idle() throws InterruptedException {
+            Thread.sleep(1000);
+        }
+    }
+
     // 子线程异步更新DB
-    private class VoucherOrderHandler implements Runnable{
-        String queueName = "stream.orders";
+    private class VoucherOrderHandler extends AbstractVoucherOrderHandler{
+        VoucherOrderHandler(int index, int threads) {
+            super(index, threads);
+        }
+
         @Override
         public void run() {
             while (true){
                 try {
+                    if (!refreshStreams()){
+                        idle();
+                        continue;
+                    }
                     // 获取stream消息队列中的订单信息，没有则阻塞
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
+                    List<MapRecord<String, Object, Object>> list = read(1, Duration.ofSeconds(2));
                     // 判断获取消息是否成功
                     if (list == null || list.isEmpty()){
                         continue;
@@ -84,49 +190,169 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                     // 下单
                     handleVoucherOrder(voucherOrder);
                     // ACK消息确认（解决消息丢失的机制）
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    stringRedisTemplate.opsForStream().acknowledge(record.getStream(), SECKILL_ORDER_GROUP, record.getId());
+                    orderPipelineMetrics.recordCommitted(record.getId());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
+                    // 线程池关闭时阻塞中的redis命令被中断（lettuce会保留中断标记），退出消费
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    // 失败的消息留在pending list中，由OrderStreamRecovery退避重试，不阻塞后续新订单
                     log.error("处理订单异常", e);
-                    handlePendingList();
                 }
             }
         }
+    }
+
+    // 子线程异步批量更新DB：一次读取多条消息，一个事务内多行insert + 按优惠券聚合扣减库存，每个分区一次XACK确认整批
+    private class BatchVoucherOrderHandler extends AbstractVoucherOrderHandler{
+        private final int batchSize = seckillProperties.getOrder().getBatchSize();
+        private final long lingerMs = seckillProperties.getOrder().getBatchLingerMs();
+        private final long statsIntervalMs = seckillProperties.getOrder().getStatsIntervalSec() * 1000;
+        // 吞吐量统计（只在当前消费线程内读写）
+        private long statsStart = System.currentTimeMillis();
+        private long statsOrders = 0;
+        private long statsBatches = 0;
+        private long statsPersistMs = 0;
+
+        BatchVoucherOrderHandler(int index, int threads) {
+            super(index, threads);
+        }
 
-        private void handlePendingList() {
+        @Override
+        public void run() {
             while (true){
                 try {
-                    // 获取pending list中的订单信息，没有则阻塞
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
-                    // 判断获取消息是否成功
-                    if (list == null || list.isEmpty()){
-                        break;
+                    if (!refreshStreams()){
+                        idle();
+                        continue;
+                    }
+                    List<MapRecord<String, Object, Object>> records = readBatch();
+                    if (records.isEmpty()){
+                        continue;
                     }
                     // 解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 下单
-                    handleVoucherOrder(voucherOrder);
-                    // stream pending list 的ACK消息确认（解决消息丢失的机制）
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理pending list异常", e);
+                    List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+                    for (MapRecord<String, Object, Object> record : records) {
+                        voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+                    }
+                    // 批量下单
+                    long begin = System.nanoTime();
                     try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException interruptedException) {
-                        interruptedException.printStackTrace();
+                        proxy.createVoucherOrders(voucherOrders);
+                    } catch (Exception e) {
+                        orderPipelineMetrics.recordPersist(OrderPipelineMetrics.MODE_BATCH, records.size(),
+                                System.nanoTime() - begin, false);
+                        // 整批事务回滚，逐条走单条下单流程，失败的消息留给OrderStreamRecovery
+                        log.error("批量处理订单异常，改为逐条处理", e);
+                        handleRecords(records);
+                        continue;
                     }
+                    long persistNanos = System.nanoTime() - begin;
+                    orderPipelineMetrics.recordPersist(OrderPipelineMetrics.MODE_BATCH, records.size(), persistNanos, true);
+                    // 按分区一次XACK确认整批消息
+                    Map<String, List<RecordId>> idsByStream = records.stream().collect(Collectors.groupingBy(
+                            MapRecord::getStream, Collectors.mapping(MapRecord::getId, Collectors.toList())));
+                    idsByStream.forEach((stream, ids) -> stringRedisTemplate.opsForStream()
+                            .acknowledge(stream, SECKILL_ORDER_GROUP, ids.toArray(new RecordId[0])));
+                    records.forEach(record -> orderPipelineMetrics.recordCommitted(record.getId()));
+                    report(records.size(), TimeUnit.NANOSECONDS.toMillis(persistNanos));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    log.error("处理订单异常", e);
+                }
+            }
+        }
+
+        // 第一次阻塞等待消息，拿到消息后在linger时间内继续凑批，凑满batchSize或超时即返回
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+            List<MapRecord<String, Object, Object>> list = read(batchSize, Duration.ofSeconds(2));
+            if (list == null || list.isEmpty()){
+                return batch;
+            }
+            batch.addAll(list);
+            long deadline = System.currentTimeMillis() + lingerMs;
+            while (batch.size() < batchSize){
+                long remain = deadline - System.currentTimeMillis();
+                // block 0 表示永久阻塞，所以剩余时间不足1ms直接结束凑批
+                if (remain <= 0){
+                    break;
                 }
+                list = read(batchSize - batch.size(), Duration.ofMillis(remain));
+                if (list == null || list.isEmpty()){
+                    break;
+                }
+                batch.addAll(list);
+            }
+            return batch;
+        }
+
+        // 定期输出吞吐量：单/秒、平均批大小、平均落库耗时
+        private void report(int orders, long persistMs) {
+            statsOrders += orders;
+            statsBatches++;
+            statsPersistMs += persistMs;
+            long now = System.currentTimeMillis();
+            long elapsed = now - statsStart;
+            if (elapsed < statsIntervalMs){
+                return;
+            }
+            log.info("订单批量消费吞吐量：{} 单/秒，消费者={}，批次数={}，平均批大小={}，平均落库耗时={}ms",
+                    statsOrders * 1000 / Math.max(elapsed, 1), consumer.getName(), statsBatches,
+                    statsOrders / statsBatches, statsPersistMs / statsBatches);
+            statsStart = now;
+            statsOrders = 0;
+            statsBatches = 0;
+            statsPersistMs = 0;
+        }
+    }
+
+    // 逐条下单并ACK，失败的消息留在pending list中，由OrderStreamRecovery按退避策略重试
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                handleVoucherOrder(voucherOrder);
+                stringRedisTemplate.opsForStream().acknowledge(record.getStream(), SECKILL_ORDER_GROUP, record.getId());
+                orderPipelineMetrics.recordCommitted(record.getId());
+            } catch (Exception e) {
+                log.error("处理订单异常, stream={}, id={}", record.getStream(), record.getId(), e);
+            }
+        }
+    }
+
+    // 把本消费者pending list中的消息逐条处理一遍（分区切换时调用），不会在失败的消息上反复重试
+    private void handlePendingList(String queueName, Consumer consumer) {
+        String lastId = "0";
+        while (true){
+            // 从lastId之后读取pending list中的订单信息
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    consumer,
+                    StreamReadOptions.empty().count(100),
+                    StreamOffset.create(queueName, ReadOffset.from(lastId))
+            );
+            // 判断获取消息是否成功
+            if (list == null || list.isEmpty()){
+                break;
             }
+            handleRecords(list);
+            lastId = list.get(list.size() - 1).getId().getValue();
         }
     }
 
-    // 子线程需要执行createVoucherOrder（在主线程），需要得到它具有事务的代理对象，
-    // 通过全局变量实现跨线程传递消息proxy
+    // 子线程需要执行createVoucherOrder，需要得到它具有事务的代理对象。
+    // 注入自身的代理（@Lazy避免循环依赖），消费线程和pending恢复在本节点还没有秒杀请求时也能下单
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
     /**
      *  优惠券秒杀。1、CAS（compare and set）乐观锁解决超卖问题。
@@ -135,36 +361,79 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 本地校验秒杀时间窗口（预热的秒杀券）
+        int window = voucherPreheatService.checkWindow(voucherId);
+        if (window != VoucherPreheatService.WINDOW_OPEN) {
+            return Result.fail(window == VoucherPreheatService.WINDOW_NOT_BEGIN ? SECKILL_NOT_BEGIN : SECKILL_END);
+        }
+        // 本地已标记售罄，直接拒绝（不生成订单id，不访问redis）
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail(SECKILL_NONE);
+        }
+        // 售罄标记只对本次读到的补货版本有效
+        long restockEpoch = soldOutRegistry.epoch(voucherId);
         Long userId = UserHolder.getUser().getId();
-        long orderId = redisWorker.nextId("order");
+        long orderId = idGenerator.nextId("order");
         // 执行lua脚本
         Long result = stringRedisTemplate.execute(
                 SECKILL_SCRIPT,
                 Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
+                voucherId.toString(), userId.toString(), String.valueOf(orderId),
+                String.valueOf(seckillProperties.getOrder().getPartitions()),
+                seckillProperties.getOrder().getPartitionBy(),
+                String.valueOf(cancelTimeoutMs())
         );
         // 判断
         assert result != null;
         int i = result.intValue();
+        // 库存不足，标记售罄并广播
+        if (i == 1) {
+            soldOutRegistry.markSoldOut(voucherId, restockEpoch);
+            return Result.fail(SECKILL_NONE);
+        }
+        // 不在秒杀时间内
+        if (i == VoucherPreheatService.WINDOW_NOT_BEGIN || i == VoucherPreheatService.WINDOW_END) {
+            return Result.fail(i == VoucherPreheatService.WINDOW_NOT_BEGIN ? SECKILL_NOT_BEGIN : SECKILL_END);
+        }
         // 没有购买资格
         if (i != 0) {
-            return Result.fail(i == 1 ? SECKILL_NONE : SECKILL_NOT_REPEAT);
+            return Result.fail(SECKILL_NOT_REPEAT);
         }
-
-        // 获取VoucherOrderService的代理对象给异步子线程执行createVoucherOrder事务
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
         return Result.ok(orderId);
     }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
+    /**
+     * 消费一条订单消息（按配置走加锁或幂等落库）
+     */
+    @Override
+    public void handleVoucherOrder(VoucherOrder voucherOrder) {
+        long begin = System.nanoTime();
+        boolean success = false;
+        try {
+            persistVoucherOrder(voucherOrder);
+            success = true;
+        } finally {
+            orderPipelineMetrics.recordPersist(OrderPipelineMetrics.MODE_SINGLE, 1, System.nanoTime() - begin, success);
+        }
+    }
+
+    // 按配置走加锁或幂等落库
+    private void persistVoucherOrder(VoucherOrder voucherOrder) {
+        // 幂等模式：唯一索引保证一人一单和重放安全，不需要分布式锁
+        if (isIdempotentMode()) {
+            proxy.createVoucherOrderIdempotent(voucherOrder);
+            return;
+        }
         Long userId = voucherOrder.getUserId();
         // redissonClient创建分布式锁对象
         RLock lock = redissonClient.getLock(SECKILL_ORDER_LOCK_KEY + userId);
         // 尝试获取锁
         boolean hasLock = lock.tryLock();
         if (!hasLock) {
-            log.error(SECKILL_NOT_REPEAT);
-            return;
+            // 没拿到锁不一定是重复订单（可能是重试与消费者同时处理），抛出异常让消息留在pending list中重试，
+            // 真正的重复订单由createVoucherOrder中的一人一单检查确认后再ACK
+            orderPipelineMetrics.lockFailure();
+            throw new IllegalStateException(SECKILL_NOT_REPEAT + "，userId=" + userId);
         }
         try{
             proxy.createVoucherOrder(voucherOrder);
@@ -178,14 +447,17 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     public void createVoucherOrder(VoucherOrder voucherOrder) {
         // 5、一人一单
         Long userId = voucherOrder.getUserId();
-        Integer count = this.query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
+        // 已取消的订单不占名额（超时取消后可以再抢）
+        Integer count = this.query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId())
+                .ne("status", ORDER_STATUS_CANCELLED).count();
         if (count > 0 ){
+            orderPipelineMetrics.duplicate(1);
             log.error(SECKILL_HOLD);
             return;
         }
         // 更新库存
         boolean success = seckillVoucherService.update()
-                .setSql("stock = stokc - 1")
+                .setSql("stock = stock - 1")
                 .eq("voucher_id", voucherOrder.getVoucherId())
                 .gt("stock", 0)
                 .update();
@@ -194,10 +466,129 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             log.error(SECKILL_NONE);
             return;
         }
-        // 保存订单
+        // 保存订单（已取消的订单不参与唯一索引，再次抢到时插入新的一行）
         this.save(voucherOrder);
 
     }
+
+    /**
+     * 幂等创建订单（无锁）。订单id和 (user_id, voucher_id, active) 唯一索引使insert幂等，
+     * 只有真正插入了订单才扣减库存，pending list重放时insert违反唯一索引，直接跳过。
+     * active是status生成的列，已取消的订单为NULL，不参与唯一约束，超时取消后再次抢到可以插入新订单。
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrderIdempotent(VoucherOrder voucherOrder) {
+        // insert是事务中的第一条语句，唯一索引冲突时没有需要回滚的修改
+        try {
+            getBaseMapper().insert(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            orderPipelineMetrics.duplicate(1);
+            log.error(SECKILL_HOLD);
+            return;
+        }
+        int rows = seckillVoucherMapper.decreaseStock(voucherOrder.getVoucherId(), 1);
+        if (rows == 0) {
+            // 库存不足，撤销刚插入的订单，消息正常ACK
+            log.error(SECKILL_NONE);
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        }
+    }
+
+    // 批量创建订单（一个事务）
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        if (isIdempotentMode()) {
+            createVoucherOrdersIdempotent(voucherOrders);
+            return;
+        }
+        // 一人一单：一次查询过滤掉已经落库的订单（pending list重放），同时去掉批内重复
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = voucherOrders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        Set<String> bought = this.query()
+                .select("user_id", "voucher_id")
+                .in("user_id", userIds)
+                .in("voucher_id", voucherIds)
+                .ne("status", ORDER_STATUS_CANCELLED)
+                .list()
+                .stream()
+                .map(o -> o.getUserId() + ":" + o.getVoucherId())
+                .collect(Collectors.toSet());
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            if (bought.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId())){
+                toSave.add(voucherOrder);
+            } else {
+                orderPipelineMetrics.duplicate(1);
+                log.error(SECKILL_HOLD);
+            }
+        }
+        if (toSave.isEmpty()){
+            return;
+        }
+        // 按优惠券聚合扣减库存，每个优惠券一条update
+        Map<Long, Long> counts = toSave.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+            int rows = seckillVoucherMapper.decreaseStock(entry.getKey(), entry.getValue().intValue());
+            if (rows == 0){
+                // 库存不足整批回滚，交给逐条下单流程处理
+                throw new IllegalStateException(SECKILL_NONE + "，voucherId=" + entry.getKey());
+            }
+        }
+        // 多行insert保存订单
+        getBaseMapper().insertBatch(toSave);
+    }
+
+    // 幂等批量创建订单：不做去重查询，多行insert成功后按优惠券聚合扣减库存；
+    // 有行违反唯一索引（重放或批内重复）时抛出DuplicateKeyException整批回滚，交给逐条的幂等流程处理
+    private void createVoucherOrdersIdempotent(List<VoucherOrder> voucherOrders) {
+        getBaseMapper().insertBatch(voucherOrders);
+        Map<Long, Long> counts = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+            int rows = seckillVoucherMapper.decreaseStock(entry.getKey(), entry.getValue().intValue());
+            if (rows == 0){
+                throw new IllegalStateException(SECKILL_NONE + "，voucherId=" + entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 批量取消超时未支付的订单（一个事务）：逐条按状态条件更新，只有仍未支付的订单会被取消，
+     * 再按优惠券聚合归还DB库存。redis库存由调用方在事务提交后归还。
+     * @return 实际取消的订单
+     */
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelUnpaidOrders(List<VoucherOrder> voucherOrders) {
+        List<VoucherOrder> cancelled = new ArrayList<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            boolean success = update()
+                    .set("status", ORDER_STATUS_CANCELLED)
+                    .eq("id", voucherOrder.getId())
+                    .eq("status", ORDER_STATUS_UNPAID)
+                    .update();
+            if (success) {
+                cancelled.add(voucherOrder);
+            }
+        }
+        Map<Long, Long> counts = cancelled.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        counts.forEach((voucherId, count) -> seckillVoucherMapper.increaseStock(voucherId, count.intValue()));
+        return cancelled;
+    }
+
+    // 传给seckill.lua的超时取消时间，0表示不登记取消任务
+    private long cancelTimeoutMs() {
+        SeckillProperties.Cancel cancel = seckillProperties.getCancel();
+        return cancel.isEnabled() ? TimeUnit.MINUTES.toMillis(cancel.getTimeoutMinutes()) : 0;
+    }
+
+    private boolean isIdempotentMode() {
+        return "idempotent".equalsIgnoreCase(seckillProperties.getOrder().getPersistMode());
+    }
 }
 
 /*
@@ -2,19 +2,34 @@ package com.hmdp.utils;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.sun.xml.internal.ws.resources.UtilMessages;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.hmdp.config.CacheProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -25,48 +40,160 @@ import static com.hmdp.utils.RedisConstants.*;
 @Component
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
-    // 线程池（用于缓存击穿逻辑过期方法，线程更新DB时开启另一个线程去更新），10个线程
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    // 读写缓存值（CacheSerializer编码后的字节）
+    private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+    private final CacheSerializer serializer;
+    // 一级缓存（按前缀开启）
+    private final LocalCache localCache;
+    // 布隆过滤器（按前缀开启）
+    private final RedisBloomFilter bloomFilter;
+    private final CacheProperties cacheProperties;
+    // 缓存未命中时合并同一节点上对同一个key的加载
+    private final SingleFlight singleFlight = new SingleFlight();
+    // 重建线程池（用于缓存击穿逻辑过期方法，线程更新DB时开启另一个线程去更新），有界队列，同一个key只重建一次
+    private final CacheRebuildExecutor rebuildExecutor;
+    // 按key前缀统计的缓存指标
+    private final CacheMetrics metrics;
+    // 热点key探测，热点的redis值读本地副本
+    private final HotKeyDetector hotKeys;
+    // 删除缓存：事务提交后批量删除并广播
+    private final CacheInvalidator invalidator;
 
     // 通过构造函数注入
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> cacheRedisTemplate,
+                       CacheSerializer serializer, LocalCache localCache, RedisBloomFilter bloomFilter,
+                       CacheRebuildExecutor rebuildExecutor, CacheMetrics metrics, HotKeyDetector hotKeys,
+                       CacheInvalidator invalidator, CacheProperties cacheProperties) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRedisTemplate = cacheRedisTemplate;
+        this.serializer = serializer;
+        this.localCache = localCache;
+        this.bloomFilter = bloomFilter;
+        this.rebuildExecutor = rebuildExecutor;
+        this.metrics = metrics;
+        this.hotKeys = hotKeys;
+        this.invalidator = invalidator;
+        this.cacheProperties = cacheProperties;
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        cacheRedisTemplate.opsForValue().set(key, serializer.encode(value), time, unit);
 
 
     }
     // 重建逻辑过期
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, int rebuildMillis){
+        // 设置逻辑过期（过期时间和重建耗时写在格式头中，不再把value包装成RedisData再编码一次）
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        cacheRedisTemplate.opsForValue().set(key, serializer.encodeWithExpire(value, expireTime, rebuildMillis));
+
+    }
+
+    // 将空值写入redis，预防缓存穿透问题，设置TTL，减少redis内存消耗
+    private void setNull(String key){
+        stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 删除缓存（更新数据库后调用），同时清除所有节点的本地缓存。
+     * 在事务中调用时事务提交后才删除；删除在后台批量执行，返回时可能还没有删除
+     */
+    public void delete(String key) {
+        invalidator.invalidate(key);
+    }
 
+    /**
+     * 查询缓存：先查本地缓存，未命中时读redis并放入本地缓存。
+     * 本地缓存中的对象被本节点所有请求共享，返回拷贝，调用方可以修改结果（与queryBatch一致）
+     * @return null表示redis中没有该key，LocalCache.NULL_VALUE表示缓存的空值
+     */
+    private <R> Object getCache(CacheMetrics.Prefix m, String keyPrefix, String key, Class<R> type) {
+        Cache<String, Object> local = localCache.get(keyPrefix);
+        if (local == null) {
+            Object value = parse(m, read(m, key), type);
+            m.lookup(value, false);
+            return value;
+        }
+        // 在caffeine的加载过程中读redis：加载期间到达的失效广播会等加载完成后再清除，不会留下旧值
+        boolean[] remote = {false};
+        Object value = local.get(key, k -> {
+            remote[0] = true;
+            return parse(m, read(m, k), type);
+        });
+        if (value != null && value != LocalCache.NULL_VALUE && !type.isInstance(value)) {
+            // 同一个key被按其它类型缓存过
+            local.invalidate(key);
+            value = parse(m, read(m, key), type);
+            remote[0] = true;
+        }
+        m.lookup(value, !remote[0]);
+        return type.isInstance(value) ? BeanUtil.copyProperties(value, type) : value;
+    }
+
+    /**
+     * 请求中读取缓存值：记录热点，热点key读本地副本（最多localTtlMs不一致，删除缓存时随失效广播清除）
+     */
+    private byte[] read(CacheMetrics.Prefix m, String key) {
+        if (hotKeys.record(key)) {
+            return localCache.getHot(key, k -> redisGet(m, k));
+        }
+        return redisGet(m, key);
+    }
+
+    // 直接读redis，用于重建时的双重校验
+    private byte[] redisGet(CacheMetrics.Prefix m, String key) {
+        return m.redis(() -> cacheRedisTemplate.opsForValue().get(key));
+    }
+
+    /**
+     * @return null表示没有缓存或无法解码（按未命中处理，重新加载后覆盖），LocalCache.NULL_VALUE表示缓存的空值
+     */
+    private <R> Object parse(CacheMetrics.Prefix m, byte[] data, Class<R> type) {
+        if (data == null) {
+            return null;
+        }
+        // 空值""
+        return data.length > 0 ? m.decode(() -> serializer.decode(data, type)) : LocalCache.NULL_VALUE;
     }
 
     public <R, ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
-        String key = keyPrefix + id;
-        // 从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 存在，则直接返回。StrUtil.isNotBlank(json),如果json为""，是false
-        if (StrUtil.isNotBlank(json)){
-            return JSONUtil.toBean(json, type);
+        CacheMetrics.Prefix m = metrics.prefix(keyPrefix);
+        // 布隆过滤器判断id一定不存在，直接返回（解决缓存穿透）
+        if (!bloomFilter.mightContainKey(keyPrefix, id)){
+            m.request(CacheMetrics.BLOOM_REJECT);
+            return null;
         }
+        String key = keyPrefix + id;
+        // 从本地缓存/redis查询商铺缓存
+        Object cached = getCache(m, keyPrefix, key, type);
         // 判断命中的是否为""值（解决缓存穿透）
-        if (json != null){
+        if (cached == LocalCache.NULL_VALUE){
             return null;
         }
+        // 存在，则直接返回
+        if (cached != null){
+            return type.cast(cached);
+        }
+        // 查数据库（同一节点上同一个key只查一次，其它线程等待结果）
+        return singleFlight.execute(key, () -> loadAndCache(m, keyPrefix, id, dbFallback, time, unit),
+                cacheProperties.getSingleFlightTimeoutMs(), () -> recheck(m, key, type));
+    }
+
+    private <R, ID> R loadAndCache(CacheMetrics.Prefix m, String keyPrefix, ID id, Function<ID, R> dbFallback,
+                                   Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
         // 查数据库
-        R r = dbFallback.apply(id);
+        R r = m.db(() -> dbFallback.apply(id));
         // 不存在，写入空值""
         if (r == null){
-            // 将空值写入redis，预防缓存穿透问题，设置TTL，减少redis内存消耗
-            stringRedisTemplate.opsForValue().set(key, "",CACHE_NULL_TTL, TimeUnit.MINUTES);
+            bloomFilter.recordFalsePositive(keyPrefix);
+            // 将空值写入redis，预防缓存穿透问题
+            setNull(key);
             return null;
         }
         // 存在，写入redis,设置TTL来定期删除缓存操作，再配合更新数据库时删除缓存，预防数据一致性问题，
@@ -74,115 +201,368 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 批量查询：本地缓存 -> 一次MGET -> 未命中的id一次IN查询数据库，再用pipeline回写redis（不存在的id写入空值），
+     * 结果按ids的顺序返回，数据库中不存在的id被跳过（替代 ORDER BY FIELD）。
+     * ids来自服务端的zset/geo/表数据，不经过布隆过滤器；本地缓存只读不写，命中时返回拷贝，调用方可以修改结果
+     * @param dbFallback 按id集合查询数据库，如 listByIds
+     * @param idGetter 取实体的id，用于把查询结果对应回key
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, List<ID> ids, Class<R> type,
+                                      Function<Collection<ID>, List<R>> dbFallback, Function<R, ID> idGetter,
+                                      Long time, TimeUnit unit){
+        if (ids == null || ids.isEmpty()){
+            return Collections.emptyList();
+        }
+        // 去重，保留调用方的顺序
+        List<ID> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<String, R> found = new HashMap<>(distinct.size() * 2);
+        CacheMetrics.Prefix m = metrics.prefix(keyPrefix);
+        Cache<String, Object> local = localCache.get(keyPrefix);
+        // 查本地缓存和热点key的本地副本
+        List<ID> remoteIds = new ArrayList<>(distinct.size());
+        List<String> remoteKeys = new ArrayList<>(distinct.size());
+        List<ID> missing = new ArrayList<>();
+        // 本地副本已过期的热点key，读redis后重新保存
+        Set<String> hotRemoteKeys = new HashSet<>();
+        for (ID id : distinct) {
+            String key = keyPrefix + id;
+            Object value = local == null ? null : local.getIfPresent(key);
+            if (value == LocalCache.NULL_VALUE){
+                m.lookup(value, true);
+                continue;
+            }
+            if (type.isInstance(value)){
+                m.lookup(value, true);
+                found.put(String.valueOf(id), BeanUtil.copyProperties(value, type));
+                continue;
+            }
+            if (hotKeys.record(key)){
+                byte[] copy = localCache.getHotIfPresent(key);
+                if (copy != null){
+                    collect(m, id, parse(m, copy, type), type, found, missing);
+                    continue;
+                }
+                hotRemoteKeys.add(key);
+            }
+            remoteIds.add(id);
+            remoteKeys.add(key);
+        }
+        if (!remoteKeys.isEmpty()){
+            // 一次MGET查redis
+            List<byte[]> values = m.redis(() -> cacheRedisTemplate.opsForValue().multiGet(remoteKeys));
+            for (int i = 0; i < remoteIds.size(); i++) {
+                byte[] data = values == null ? null : values.get(i);
+                if (hotRemoteKeys.contains(remoteKeys.get(i))){
+                    localCache.putHot(remoteKeys.get(i), data);
+                }
+                collect(m, remoteIds.get(i), parse(m, data, type), type, found, missing);
+            }
+        }
+        if (missing.isEmpty()){
+            return inOrder(ids, found);
+        }
+        // 未命中的id一次IN查询数据库
+        List<R> rows = m.db(() -> dbFallback.apply(missing));
+        Map<String, byte[]> backfill = new HashMap<>(missing.size() * 2);
+        for (R row : rows) {
+            String id = String.valueOf(idGetter.apply(row));
+            found.put(id, row);
+            backfill.put(keyPrefix + id, serializer.encode(row));
+        }
+        // pipeline回写redis，数据库中不存在的id写入空值（预防缓存穿透）
+        List<String> keys = new ArrayList<>(missing.size());
+        for (ID id : missing) {
+            keys.add(keyPrefix + id);
+        }
+        pipelineSet(keys, backfill, Expiration.from(time, unit));
+        return inOrder(ids, found);
+    }
+
+    /**
+     * 批量写入缓存（预热），一次pipeline
+     * @param idGetter 取实体的id，key为keyPrefix + id
+     */
+    public <R, ID> void setBatch(String keyPrefix, Collection<R> values, Function<R, ID> idGetter, Long time, TimeUnit unit){
+        Map<String, byte[]> encoded = new HashMap<>(values.size() * 2);
+        for (R value : values) {
+            encoded.put(keyPrefix + idGetter.apply(value), serializer.encode(value));
+        }
+        pipelineSet(new ArrayList<>(encoded.keySet()), encoded, Expiration.from(time, unit));
+    }
+
+    /**
+     * 批量写入逻辑过期的缓存（预热），redis中不设置过期时间，一次pipeline
+     */
+    public <R, ID> void setBatchWithLogicalExpire(String keyPrefix, Collection<R> values, Function<R, ID> idGetter,
+                                                  Long time, TimeUnit unit){
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        Map<String, byte[]> encoded = new HashMap<>(values.size() * 2);
+        for (R value : values) {
+            encoded.put(keyPrefix + idGetter.apply(value), serializer.encodeWithExpire(value, expireTime, 0));
+        }
+        pipelineSet(new ArrayList<>(encoded.keySet()), encoded, Expiration.persistent());
+    }
+
+    /**
+     * 写入不过期的缓存，如整个列表（queryList读取）
+     */
+    public void setPersistent(String key, Object value){
+        cacheRedisTemplate.opsForValue().set(key, serializer.encode(value));
+    }
+
+    // pipeline写入，values中没有的key写入空值（预防缓存穿透）
+    private void pipelineSet(List<String> keys, Map<String, byte[]> values, Expiration expiration) {
+        Expiration nullExpiration = Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                byte[] value = values.get(key);
+                connection.stringCommands().set(bytes(key), value == null ? new byte[0] : value,
+                        value == null ? nullExpiration : expiration, RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 查询整个列表的缓存（一个key保存编码后的整个列表，不设置过期时间），未命中时查数据库并写入
+     */
+    public <R> List<R> queryList(String key, Class<R> type, Supplier<List<R>> dbFallback){
+        // 整个key作为指标前缀
+        CacheMetrics.Prefix m = metrics.prefix(key);
+        List<R> list;
+        try {
+            byte[] cached = read(m, key);
+            list = cached == null || cached.length == 0 ? null : m.decode(() -> serializer.decodeList(cached, type));
+        } catch (DataAccessException e) {
+            // 升级前按redis list保存（每个元素一个JSON字符串），读出后按新格式覆盖
+            if (cacheRedisTemplate.type(key) != DataType.LIST) {
+                throw e;
+            }
+            list = new ArrayList<>();
+            for (String json : stringRedisTemplate.opsForList().range(key, 0, -1)) {
+                list.add(serializer.decode(bytes(json), type));
+            }
+            setPersistent(key, list);
+        }
+        m.lookup(list, false);
+        if (list != null){
+            return list;
+        }
+        // 查数据库
+        list = m.db(dbFallback);
+        if (list != null){
+            setPersistent(key, list);
+        }
+        return list;
+    }
+
+    // 记录批量查询中一个key的结果：命中放入found，未命中放入missing
+    private static <R, ID> void collect(CacheMetrics.Prefix m, ID id, Object value, Class<R> type,
+                                        Map<String, R> found, List<ID> missing) {
+        m.lookup(value, false);
+        if (value == null){
+            missing.add(id);
+        } else if (value != LocalCache.NULL_VALUE){
+            found.put(String.valueOf(id), type.cast(value));
+        }
+    }
+
+    // 按调用方的id顺序排列结果
+    private static <R, ID> List<R> inOrder(List<ID> ids, Map<String, R> found) {
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(String.valueOf(id));
+            if (r != null){
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
 
     //缓存击穿 逻辑过期解决方法
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
+        CacheMetrics.Prefix m = metrics.prefix(keyPrefix);
         // 从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        byte[] cached = read(m, key);
         // 未命中，返回null，（感觉逻辑过期解决方法只适用于一些特殊业务，解决不了缓存穿透。
         // 而且，逻辑过期要用的时候需要事先存好缓存,所以这个判断一直不生效，除非删除了缓存）
-        if (StrUtil.isBlank(shopJson)){
+        if (cached == null || cached.length == 0){
+            m.lookup(null, false);
             return null;
         }
         // 命中
-        // 反序列化
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 反序列化（兼容旧的RedisData JSON格式）
+        RedisData redisData = m.decode(() -> serializer.decodeWithExpire(cached, type));
+        m.lookup(redisData, false);
+        if (redisData == null){
+            return null;
+        }
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
-        // 没过期
-        if (expireTime.isAfter(LocalDateTime.now())){
+        // 没过期，并且没有抽中提前刷新
+        if (!shouldRefresh(expireTime, redisData.getRebuildMillis())){
             return r;
         }
-        // 过期
-        String localKey = LOCK_SHOP_KEY + id;
-        boolean hasLock = tryLock(localKey);
-        if (hasLock) {
-            // 双重校验
-            shopJson = stringRedisTemplate.opsForValue().get(key);
-            redisData = JSONUtil.toBean(shopJson, RedisData.class);
-            r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-            expireTime = redisData.getExpireTime();
-            if (expireTime.isAfter(LocalDateTime.now())){
-                unlock(localKey);
-                return r;
-            }
-            // 开启独立线程去重建缓存, 当前线程则继续执行，返回老数据（所以逻辑过期会出现
-            // 数据一致性问题，但是速度块）
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查数据库
-                    R r1 = dbFallback.apply(id);
-                    // 重建
-                    this.setWithLogicalExpire(key, r1, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException();
-                }finally {
-                    // 释放锁
-                    unlock(localKey);
-                }
-            });
-        }
+        // 过期（或提前刷新）：开启独立线程去重建缓存, 当前线程则继续执行，返回老数据（所以逻辑过期会出现
+        // 数据一致性问题，但是速度块）
+        refreshAsync(m, key, id, expireTime, expireTime.isAfter(LocalDateTime.now()), type, dbFallback, time, unit);
         return r;
     }
 
+    /**
+     * 是否需要重建。已过期时总是重建；开启提前刷新时按XFetch算法，每次读取以一定概率提前重建：
+     * -rebuildMillis * beta * ln(random) >= 剩余时间，剩余时间越短、重建越慢，概率越高，
+     * 各节点的刷新时间因此被随机打散，不会在过期的一刻同时竞争锁
+     */
+    private boolean shouldRefresh(LocalDateTime expireTime, Long rebuildMillis) {
+        long remaining = Duration.between(LocalDateTime.now(), expireTime).toMillis();
+        if (remaining <= 0) {
+            return true;
+        }
+        CacheProperties.EarlyRefresh early = cacheProperties.getEarlyRefresh();
+        if (!early.isEnabled()) {
+            return false;
+        }
+        long delta = rebuildMillis != null ? rebuildMillis : early.getDefaultRebuildMs();
+        // 1 - nextDouble()的取值范围为(0, 1]，避免ln(0)
+        double gap = -delta * early.getBeta() * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return gap >= remaining;
+    }
+
+    // 在线程池中重建逻辑过期缓存：本节点同一个key只排队一次（重复提交提高优先级），节点之间通过互斥锁只重建一次；
+    // 队列满时放弃，继续返回旧数据
+    private <R, ID> void refreshAsync(CacheMetrics.Prefix m, String key, ID id, LocalDateTime seenExpireTime, boolean early,
+                                      Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        rebuildExecutor.submit(key, () -> {
+            String lockKey = LOCK_SHOP_KEY + id;
+            if (!tryLock(m, lockKey)) {
+                // 其它节点正在重建
+                return;
+            }
+            try {
+                // 双重校验：读到旧值之后其它节点可能已经重建完成（在后台线程中，不占用请求线程）
+                byte[] cached = cacheRedisTemplate.opsForValue().get(key);
+                RedisData latest = cached == null || cached.length == 0 ? null : serializer.decodeWithExpire(cached, type);
+                if (latest != null && latest.getExpireTime().isAfter(seenExpireTime)) {
+                    return;
+                }
+                m.refresh(early);
+                // 查数据库，记录耗时
+                long start = System.nanoTime();
+                R r = m.db(() -> dbFallback.apply(id));
+                int rebuildMillis = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                // 重建
+                this.setWithLogicalExpire(key, r, time, unit, rebuildMillis);
+            } finally {
+                // 释放锁
+                unlock(lockKey);
+            }
+        });
+    }
+
     //缓存击穿 基于悲观锁思想的分布式锁解决方法
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
-        String key = keyPrefix + id;
-        // 从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 存在，则直接返回。StrUtil.isNotBlank(json),如果json为""，是false
-        if (StrUtil.isNotBlank(shopJson)){
-            return  JSONUtil.toBean(shopJson, type);
+        CacheMetrics.Prefix m = metrics.prefix(keyPrefix);
+        // 布隆过滤器判断id一定不存在，直接返回（解决缓存穿透）
+        if (!bloomFilter.mightContainKey(keyPrefix, id)){
+            m.request(CacheMetrics.BLOOM_REJECT);
+            return null;
         }
+        String key = keyPrefix + id;
+        // 从本地缓存/redis查询商铺缓存
+        Object cached = getCache(m, keyPrefix, key, type);
         // 判断命中的是否为""值（解决缓存穿透）
-        if (shopJson != null){
+        if (cached == LocalCache.NULL_VALUE){
             return null;
         }
+        // 存在，则直接返回
+        if (cached != null){
+            return type.cast(cached);
+        }
         // 查数据库,并进行缓存重建（乐观锁）
+        // 同一节点上同一个key只有一个线程去竞争互斥锁，其它线程等待它的结果，不再各自休眠重试
+        return singleFlight.execute(key, () -> rebuildWithMutex(m, keyPrefix, id, type, dbFallback, time, unit),
+                cacheProperties.getSingleFlightTimeoutMs(), () -> recheck(m, key, type));
+    }
+
+    // 等待本节点其它线程加载超时：再查一次redis，仍然没有就报错，不再自己查数据库或竞争互斥锁
+    private <R> R recheck(CacheMetrics.Prefix m, String key, Class<R> type) {
+        Object cached = parse(m, redisGet(m, key), type);
+        if (cached == LocalCache.NULL_VALUE){
+            return null;
+        }
+        if (cached != null){
+            return type.cast(cached);
+        }
+        throw new IllegalStateException("缓存加载超时，key=" + key);
+    }
+
+    // 获取互斥锁后查数据库重建缓存；没拿到锁说明其它节点正在重建，休眠后重新查询redis，
+    // 最多等待mutexWaitMs，超时后报错，不会无限轮询
+    private <R, ID> R rebuildWithMutex(CacheMetrics.Prefix m,
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        String key = keyPrefix + id;
         // 获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
-        try {
-            boolean hasLock = tryLock(lockKey);
-            if (!hasLock) {
+        long deadline = System.currentTimeMillis() + cacheProperties.getMutexWaitMs();
+        while (!tryLock(m, lockKey)) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IllegalStateException("等待其它节点重建缓存超时，key=" + key);
+            }
+            try {
                 // 休眠重试
                 Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
             }
-
+            Object cached = parse(m, redisGet(m, key), type);
+            if (cached == LocalCache.NULL_VALUE){
+                return null;
+            }
+            if (cached != null){
+                return type.cast(cached);
+            }
+        }
+        try {
             // 需要再次查询redis中是否有缓存（DoubleCheck），比如有下面这种情况：线程A拿到锁并执行DB更新和redis重建，
             // 此时线程B执行到“从redis查询商铺缓存”时，A还没有更新完，所以B继续执行，执行到“获取互斥锁”时，
             // A更新完并释放锁，此时B拿到了锁，此时如果不再此进行缓存查询，B就会去查DB了，即使此时缓存中有该数据，
-            String check = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(check)){
-                return  JSONUtil.toBean(check, type);
+            Object check = parse(m, redisGet(m, key), type);
+            if (check != null && check != LocalCache.NULL_VALUE){
+                return type.cast(check);
             }
             // 查数据库
-            r = dbFallback.apply(id);
+            R r = m.db(() -> dbFallback.apply(id));
             if (r == null){
-                // 将空值写入redis，预防缓存穿透问题，设置TTL，减少redis内存消耗
-                this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                bloomFilter.recordFalsePositive(keyPrefix);
+                // 将空值写入redis，预防缓存穿透问题
+                setNull(key);
                 return null;
             }
             // 重建
-            this.set(key, JSONUtil.toJsonStr(r), time, unit);
-
-        } catch (InterruptedException e) {
-            throw new RuntimeException();
-        }finally {
+            this.set(key, r, time, unit);
+            return r;
+        } finally {
             // 释放锁
             unlock(lockKey);
         }
-        return r;
     }
 
-    private boolean tryLock(String key){
+    private boolean tryLock(CacheMetrics.Prefix m, String key){
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
         // 直接返回flag会进行拆箱，有可能出现空指针
-        return BooleanUtil.isTrue(flag);
+        boolean locked = BooleanUtil.isTrue(flag);
+        m.lock(locked);
+        return locked;
     }
 
     private void unlock(String key){
@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 缓存值编解码器，新增实现注册为bean即可通过hmdp.cache.codec.type选用。
+ * 只负责对象和字节之间的转换，格式头、压缩、旧数据兼容由CacheSerializer处理
+ */
+public interface CacheCodec {
+
+    /**
+     * 写入格式头的codec编号，读取时按它选择codec，上线后不能修改或复用
+     */
+    byte id();
+
+    /**
+     * 配置中使用的名称
+     */
+    String name();
+
+    byte[] encode(Object value) throws IOException;
+
+    <T> T decode(byte[] data, int offset, int length, Class<T> type) throws IOException;
+
+    <T> List<T> decodeList(byte[] data, int offset, int length, Class<T> type) throws IOException;
+}
@@ -0,0 +1,303 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 缓存失效（更新数据库后删除缓存），CacheClient.delete的实现，各实体共用：
+ * 1）在事务中调用时，事务提交后才删除（回滚则不删除），避免提交前删除后并发读取又把旧数据回填到缓存
+ * 2）删除在后台线程中执行，排队中的key合并为一个pipeline：UNLINK（redis后台释放内存）+ PUBLISH失效广播，
+ *    所有节点清除本地缓存和热点副本；请求线程不再同步等待redis
+ * 3）延迟双删（hmdp.cache.invalidation.double-delete-delay-ms）：第一次删除后延迟再删一次，
+ *    清除在提交前读到旧数据、第一次删除后才回填的缓存
+ * 4）redis不可用时按间隔重试，重试用完后放弃（依赖缓存TTL）
+ * 指标：cache.invalidation.keys{phase=first/second}、cache.invalidation.batch（每个pipeline的key数）、
+ * cache.invalidation.lag（提交到删除完成的时间）、cache.invalidation.failures、cache.invalidation.queue
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private LocalCache localCache;
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private BlockingQueue<Entry> queue;
+    // 延迟双删和失败重试
+    private ScheduledExecutorService scheduler;
+    private Thread worker;
+    private volatile boolean closed;
+
+    private Counter firstKeys;
+    private Counter secondKeys;
+    private Counter failures;
+    private DistributionSummary batchSize;
+    private Timer lag;
+
+    @PostConstruct
+    private void init() {
+        CacheProperties.Invalidation config = cacheProperties.getInvalidation();
+        queue = new LinkedBlockingQueue<>(config.getQueueCapacity());
+        firstKeys = keys("first");
+        secondKeys = keys("second");
+        failures = Counter.builder("cache.invalidation.failures")
+                .description("删除缓存失败的pipeline数")
+                .register(meterRegistry);
+        batchSize = DistributionSummary.builder("cache.invalidation.batch")
+                .description("每个pipeline删除的key数")
+                .register(meterRegistry);
+        lag = Timer.builder("cache.invalidation.lag")
+                .description("提交（或调用）到删除完成的时间")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("cache.invalidation.queue", queue, BlockingQueue::size)
+                .description("排队等待删除的key数")
+                .register(meterRegistry);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-invalidate-delay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        worker = new Thread(this::work, "cache-invalidate");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 停止接收延迟任务，等待队列中的key删除完成；未到期的延迟双删直接丢弃（第一次删除已完成）
+     */
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        scheduler.shutdownNow();
+        closed = true;
+        worker.join(cacheProperties.getInvalidation().getShutdownTimeoutMs());
+        if (worker.isAlive()) {
+            log.warn("缓存失效队列未在超时时间内清空, 剩余{}个key", queue.size());
+            worker.interrupt();
+        }
+    }
+
+    public void invalidate(String key) {
+        invalidate(Collections.singletonList(key));
+    }
+
+    /**
+     * 删除缓存：在事务中调用时提交后删除，否则立即排队删除
+     */
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(keys, false, 0, System.nanoTime());
+            return;
+        }
+        Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new Pending();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.add(keys);
+    }
+
+    private void enqueue(Collection<String> keys, boolean second, int attempt, long since) {
+        for (String key : keys) {
+            Entry entry = new Entry(key, second, attempt, since);
+            if (!queue.offer(entry)) {
+                // 队列满：在调用线程中删除，不能丢弃失效
+                flush(Collections.singletonList(entry));
+            }
+        }
+    }
+
+    private void work() {
+        CacheProperties.Invalidation config = cacheProperties.getInvalidation();
+        List<Entry> batch = new ArrayList<>(config.getBatchSize());
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                if (config.getLingerMs() > 0 && queue.size() < config.getBatchSize() - 1) {
+                    TimeUnit.MILLISECONDS.sleep(config.getLingerMs());
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, config.getBatchSize() - 1);
+            try {
+                flush(batch);
+            } catch (Exception e) {
+                log.error("删除缓存异常, keys={}", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+
+    // 一个pipeline删除并广播，清除本节点本地缓存；成功后安排延迟双删，失败时安排重试
+    private void flush(List<Entry> batch) {
+        Set<String> keys = new LinkedHashSet<>(batch.size() * 2);
+        for (Entry entry : batch) {
+            keys.add(entry.key);
+        }
+        boolean broadcast = localCache.isEnabled();
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.keyCommands().unlink(bytes(key));
+                }
+                if (broadcast) {
+                    byte[] channel = bytes(CACHE_INVALIDATE_CHANNEL);
+                    for (String key : keys) {
+                        connection.publish(channel, bytes(key));
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            failures.increment();
+            retry(batch, e);
+            return;
+        } finally {
+            // redis失败时本节点也先清除
+            localCache.evictLocal(keys);
+        }
+        batchSize.record(keys.size());
+        long now = System.nanoTime();
+        List<String> again = new ArrayList<>();
+        for (Entry entry : batch) {
+            if (entry.second) {
+                secondKeys.increment();
+            } else {
+                firstKeys.increment();
+                lag.record(now - entry.since, TimeUnit.NANOSECONDS);
+                again.add(entry.key);
+            }
+        }
+        long delay = cacheProperties.getInvalidation().getDoubleDeleteDelayMs();
+        if (delay > 0 && !again.isEmpty()) {
+            schedule(() -> enqueue(again, true, 0, System.nanoTime()), delay);
+        }
+    }
+
+    private void retry(List<Entry> batch, Exception e) {
+        CacheProperties.Invalidation config = cacheProperties.getInvalidation();
+        List<Entry> retries = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            if (entry.attempt < config.getRetries()) {
+                retries.add(entry);
+            }
+        }
+        if (retries.size() < batch.size()) {
+            log.error("删除缓存失败，放弃{}个key（依赖缓存TTL过期）", batch.size() - retries.size(), e);
+        } else {
+            log.warn("删除缓存失败，{}ms后重试{}个key", config.getRetryDelayMs(), batch.size(), e);
+        }
+        if (!retries.isEmpty()) {
+            schedule(() -> {
+                for (Entry entry : retries) {
+                    enqueue(Collections.singletonList(entry.key), entry.second, entry.attempt + 1, entry.since);
+                }
+            }, config.getRetryDelayMs());
+        }
+    }
+
+    private void schedule(Runnable task, long delayMs) {
+        if (closed) {
+            return;
+        }
+        try {
+            scheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // 关闭过程中
+            log.debug("缓存失效延迟任务未执行", e);
+        }
+    }
+
+    private Counter keys(String phase) {
+        return Counter.builder("cache.invalidation.keys")
+                .description("删除的缓存key数")
+                .tag("phase", phase)
+                .register(meterRegistry);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 事务中要删除的key，提交后排队；回滚时丢弃
+    private class Pending extends TransactionSynchronizationAdapter {
+        private final Set<String> keys = new LinkedHashSet<>();
+        // afterCommit已执行（之后的调用直接排队）
+        private boolean committed;
+
+        void add(Collection<String> more) {
+            if (committed) {
+                enqueue(more, false, 0, System.nanoTime());
+            } else {
+                keys.addAll(more);
+            }
+        }
+
+        @Override
+        public void afterCommit() {
+            committed = true;
+            enqueue(keys, false, 0, System.nanoTime());
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidator.this);
+        }
+    }
+
+    private static class Entry {
+        final String key;
+        // 是否为延迟双删的第二次删除
+        final boolean second;
+        final int attempt;
+        final long since;
+
+        Entry(String key, boolean second, int attempt, long since) {
+            this.key = key;
+            this.second = second;
+            this.attempt = attempt;
+            this.since = since;
+        }
+    }
+}
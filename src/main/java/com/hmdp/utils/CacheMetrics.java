@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * CacheClient按key前缀统计的缓存指标（micrometer，/actuator/metrics 查看，/actuator/cachestats 汇总），tag prefix为key前缀：
+ * cache.requests        查询结果 result=local_hit/redis_hit/null_hit（命中缓存的空值）/miss/bloom_reject
+ * cache.redis.latency   读redis（GET/MGET）耗时
+ * cache.decode.latency  反序列化耗时
+ * cache.db.latency      未命中时查数据库的耗时，次数即重建次数
+ * cache.lock            重建互斥锁 result=acquired/contended（被其它线程或节点持有）
+ * cache.refresh         逻辑过期缓存的重建 reason=expired/early（提前刷新）
+ */
+@Component
+public class CacheMetrics {
+    public static final String LOCAL_HIT = "local_hit";
+    public static final String REDIS_HIT = "redis_hit";
+    public static final String NULL_HIT = "null_hit";
+    public static final String MISS = "miss";
+    public static final String BLOOM_REJECT = "bloom_reject";
+    private static final String[] RESULTS = {LOCAL_HIT, REDIS_HIT, NULL_HIT, MISS, BLOOM_REJECT};
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Prefix> prefixes = new ConcurrentHashMap<>();
+
+    public Prefix prefix(String prefix) {
+        Prefix meters = prefixes.get(prefix);
+        return meters != null ? meters : prefixes.computeIfAbsent(prefix, Prefix::new);
+    }
+
+    /**
+     * 各前缀的指标汇总，供 /actuator/cachestats 使用
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        for (Prefix meters : prefixes.values()) {
+            result.put(meters.prefix, meters.snapshot());
+        }
+        return result;
+    }
+
+    private static Map<String, Object> summary(Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("count", snapshot.count());
+        item.put("meanMs", snapshot.mean(TimeUnit.MILLISECONDS));
+        item.put("maxMs", snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            item.put("p" + Math.round(percentile.percentile() * 100) + "Ms", percentile.value(TimeUnit.MILLISECONDS));
+        }
+        return item;
+    }
+
+    public class Prefix {
+        private final String prefix;
+        private final Map<String, Counter> requests = new LinkedHashMap<>();
+        private final Timer redisLatency;
+        private final Timer decodeLatency;
+        private final Timer dbLatency;
+        private final Counter lockAcquired;
+        private final Counter lockContended;
+        private final Counter refreshExpired;
+        private final Counter refreshEarly;
+
+        Prefix(String prefix) {
+            this.prefix = prefix;
+            for (String result : RESULTS) {
+                requests.put(result, Counter.builder("cache.requests").tag("prefix", prefix).tag("result", result)
+                        .description("缓存查询次数").register(meterRegistry));
+            }
+            redisLatency = timer("cache.redis.latency", "读redis（GET/MGET）的耗时");
+            decodeLatency = timer("cache.decode.latency", "缓存值反序列化耗时");
+            dbLatency = timer("cache.db.latency", "缓存未命中时查数据库的耗时");
+            lockAcquired = counter("cache.lock", "result", "acquired", "重建缓存的互斥锁获取次数");
+            lockContended = counter("cache.lock", "result", "contended", "重建缓存的互斥锁获取次数");
+            refreshExpired = counter("cache.refresh", "reason", "expired", "逻辑过期缓存的重建次数");
+            refreshEarly = counter("cache.refresh", "reason", "early", "逻辑过期缓存的重建次数");
+        }
+
+        /**
+         * 记录一次查询结果
+         * @param value 缓存值：null未命中，LocalCache.NULL_VALUE缓存的空值
+         * @param local 是否来自本地缓存
+         */
+        public void lookup(Object value, boolean local) {
+            request(value == null ? MISS : value == LocalCache.NULL_VALUE ? NULL_HIT : local ? LOCAL_HIT : REDIS_HIT);
+        }
+
+        public void request(String result) {
+            requests.get(result).increment();
+        }
+
+        public <T> T redis(Supplier<T> get) {
+            return redisLatency.record(get);
+        }
+
+        public <T> T decode(Supplier<T> decode) {
+            return decodeLatency.record(decode);
+        }
+
+        public <T> T db(Supplier<T> load) {
+            return dbLatency.record(load);
+        }
+
+        public void lock(boolean acquired) {
+            (acquired ? lockAcquired : lockContended).increment();
+        }
+
+        public void refresh(boolean early) {
+            (early ? refreshEarly : refreshExpired).increment();
+        }
+
+        private Map<String, Object> snapshot() {
+            Map<String, Object> item = new LinkedHashMap<>();
+            Map<String, Object> counts = new LinkedHashMap<>();
+            long total = 0;
+            for (Map.Entry<String, Counter> entry : requests.entrySet()) {
+                long count = (long) entry.getValue().count();
+                counts.put(entry.getKey(), count);
+                total += count;
+            }
+            item.put("requests", counts);
+            long hits = (long) (requests.get(LOCAL_HIT).count() + requests.get(REDIS_HIT).count()
+                    + requests.get(NULL_HIT).count() + requests.get(BLOOM_REJECT).count());
+            item.put("hitRatio", total == 0 ? 0 : (double) hits / total);
+            item.put("redis", summary(redisLatency));
+            item.put("decode", summary(decodeLatency));
+            item.put("db", summary(dbLatency));
+            item.put("lockAcquired", (long) lockAcquired.count());
+            item.put("lockContended", (long) lockContended.count());
+            item.put("refreshExpired", (long) refreshExpired.count());
+            item.put("refreshEarly", (long) refreshEarly.count());
+            return item;
+        }
+
+        private Timer timer(String name, String description) {
+            return Timer.builder(name).tag("prefix", prefix)
+                    .description(description)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+        }
+
+        private Counter counter(String name, String tag, String value, String description) {
+            return Counter.builder(name).tag("prefix", prefix).tag(tag, value)
+                    .description(description)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * 缓存指标按key前缀汇总：GET /actuator/cachestats
+ * 包含各前缀的本地/redis/空值命中、未命中、布隆过滤器拦截次数和命中率（不需要查数据库的比例），redis读取、反序列化、查数据库的耗时分位数，
+ * 互斥锁竞争和逻辑过期重建次数，用于调整各前缀的TTL。
+ */
+@Component
+@Endpoint(id = "cachestats")
+public class CacheMetricsEndpoint {
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @ReadOperation
+    public Map<String, Object> stats() {
+        return cacheMetrics.snapshot();
+    }
+}
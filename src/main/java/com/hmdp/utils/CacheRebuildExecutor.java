@@ -0,0 +1,247 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 缓存重建线程池（替代CacheClient中无界队列的固定线程池）：
+ * 1）队列有界，DB变慢时积压不会无限增长，队列满时按hmdp.cache.rebuild.rejection处理：
+ *    discard 放弃本次重建，调用方继续返回旧数据，下次读取时再提交；caller-runs 在调用线程中重建
+ * 2）同一个key排队或执行期间重复提交只记一次热度，不重复重建
+ * 3）按热度（排队期间被提交的次数）优先重建最热的key
+ * 队列长度有限（默认256），取任务时遍历选出最热的，开销远小于一次重建
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+    public static final String REJECTION_DISCARD = "discard";
+    public static final String REJECTION_CALLER_RUNS = "caller-runs";
+
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // 排队中的任务，key为缓存key
+    private final Map<String, Task> queued = new HashMap<>();
+    // 执行中的key
+    private final Set<String> running = new HashSet<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean closed;
+
+    private Counter submitted;
+    private Counter deduplicated;
+    private Counter rejected;
+    private Counter failed;
+    private Timer latency;
+    private Timer waiting;
+
+    @PostConstruct
+    private void init() {
+        submitted = counter("submitted");
+        deduplicated = counter("deduplicated");
+        rejected = counter("rejected");
+        failed = counter("failed");
+        Gauge.builder("cache.rebuild.queue", this, CacheRebuildExecutor::queueSize)
+                .description("排队等待重建的key数")
+                .register(meterRegistry);
+        Gauge.builder("cache.rebuild.active", this, CacheRebuildExecutor::activeCount)
+                .description("正在重建的key数")
+                .register(meterRegistry);
+        latency = Timer.builder("cache.rebuild.latency")
+                .description("一次缓存重建（查数据库并写入redis）的耗时")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        waiting = Timer.builder("cache.rebuild.wait")
+                .description("重建任务在队列中等待的时间")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        int threads = cacheProperties.getRebuild().getThreads();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "cache-rebuild-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * 停止接收新任务，等待执行中的重建完成；排队中的任务直接丢弃（缓存中仍是旧数据，其它节点或重启后再重建）
+     */
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        lock.lock();
+        try {
+            closed = true;
+            queued.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cacheProperties.getRebuild().getShutdownTimeoutMs());
+        for (Thread worker : workers) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) {
+                worker.join(remaining);
+            }
+            if (worker.isAlive()) {
+                log.warn("缓存重建线程未在超时时间内结束: {}", worker.getName());
+                worker.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 缓存key，排队或执行中的相同key只执行一次
+     * @param task 重建逻辑，需自行处理分布式锁
+     * @return false表示队列已满被放弃（discard策略），调用方继续使用旧数据
+     */
+    public boolean submit(String key, Runnable task) {
+        lock.lock();
+        try {
+            if (closed) {
+                rejected.increment();
+                return false;
+            }
+            Task pending = queued.get(key);
+            if (pending != null) {
+                // 排队期间再次提交，提高优先级
+                pending.hits++;
+                deduplicated.increment();
+                return true;
+            }
+            if (running.contains(key)) {
+                deduplicated.increment();
+                return true;
+            }
+            if (queued.size() < cacheProperties.getRebuild().getQueueCapacity()) {
+                queued.put(key, new Task(key, task));
+                submitted.increment();
+                notEmpty.signal();
+                return true;
+            }
+            rejected.increment();
+            if (!REJECTION_CALLER_RUNS.equals(cacheProperties.getRebuild().getRejection())) {
+                return false;
+            }
+            running.add(key);
+        } finally {
+            lock.unlock();
+        }
+        // caller-runs：在调用线程中重建
+        run(new Task(key, task));
+        return true;
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            lock.lock();
+            try {
+                while (queued.isEmpty() && !closed) {
+                    notEmpty.await();
+                }
+                if (closed) {
+                    return;
+                }
+                task = hottest();
+                queued.remove(task.key);
+                running.add(task.key);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            waiting.record(System.nanoTime() - task.createdAt, TimeUnit.NANOSECONDS);
+            run(task);
+        }
+    }
+
+    private void run(Task task) {
+        long start = System.nanoTime();
+        try {
+            task.runnable.run();
+        } catch (Throwable e) {
+            failed.increment();
+            log.warn("缓存重建失败, key={}", task.key, e);
+        } finally {
+            latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            lock.lock();
+            try {
+                running.remove(task.key);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // 热度最高的任务，热度相同时先提交的优先；调用方持有锁
+    private Task hottest() {
+        Task best = null;
+        for (Task task : queued.values()) {
+            if (best == null || task.hits > best.hits || (task.hits == best.hits && task.createdAt - best.createdAt < 0)) {
+                best = task;
+            }
+        }
+        return best;
+    }
+
+    private int queueSize() {
+        lock.lock();
+        try {
+            return queued.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int activeCount() {
+        lock.lock();
+        try {
+            return running.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("cache.rebuild.tasks")
+                .description("提交的缓存重建任务数")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static class Task {
+        final String key;
+        final Runnable runnable;
+        final long createdAt = System.nanoTime();
+        // 排队期间被提交的次数
+        int hits = 1;
+
+        Task(String key, Runnable runnable) {
+            this.key = key;
+            this.runnable = runnable;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存值的存储格式：
+ * [0xCA][格式版本][codec编号][flags] [逻辑过期时间 8字节毫秒，flags含EXPIRE时] [重建耗时 4字节毫秒，flags含REBUILD_COST时]
+ * [原始长度 4字节，flags含DEFLATE时] [codec编码的数据]
+ * 写入使用hmdp.cache.codec.type指定的codec，超过压缩阈值时deflate压缩；读取按格式头中的codec编号解码，
+ * 切换codec后旧数据仍可读。首字节不是0xCA的是升级前hutool写入的JSON（逻辑过期为RedisData包装），按旧方式解析。
+ * 空数组表示缓存的空值（缓存穿透），由调用方处理
+ */
+@Slf4j
+@Component
+public class CacheSerializer {
+    private static final byte MAGIC = (byte) 0xCA;
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 4;
+    private static final byte FLAG_DEFLATE = 1;
+    private static final byte FLAG_EXPIRE = 1 << 1;
+    private static final byte FLAG_REBUILD_COST = 1 << 2;
+    // Deflater/Inflater创建时分配本地内存，开销远大于压缩小对象本身，每个线程复用一个
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    // 按codec编号索引
+    private final CacheCodec[] codecs = new CacheCodec[128];
+    private final CacheCodec writer;
+    private final CacheProperties cacheProperties;
+
+    public CacheSerializer(List<CacheCodec> codecList, CacheProperties cacheProperties) {
+        this.cacheProperties = cacheProperties;
+        CacheCodec selected = null;
+        for (CacheCodec codec : codecList) {
+            if (codec.id() <= 0 || codecs[codec.id()] != null) {
+                throw new IllegalStateException("缓存codec编号无效或重复: " + codec.id());
+            }
+            codecs[codec.id()] = codec;
+            if (codec.name().equals(cacheProperties.getCodec().getType())) {
+                selected = codec;
+            }
+        }
+        if (selected == null) {
+            throw new IllegalStateException("未知的缓存codec: " + cacheProperties.getCodec().getType());
+        }
+        this.writer = selected;
+    }
+
+    public byte[] encode(Object value) {
+        return encode(value, null, 0);
+    }
+
+    /**
+     * 编码逻辑过期的缓存值，过期时间和重建耗时写在格式头中，不再用RedisData包装
+     * @param rebuildMillis 重建该值的耗时，0表示未知
+     */
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime, int rebuildMillis) {
+        return encode(value, expireTime, rebuildMillis);
+    }
+
+    /**
+     * @return 无法解码时返回null（当作缓存未命中，重新加载后覆盖）
+     */
+    public <T> T decode(byte[] data, Class<T> type) {
+        try {
+            if (data[0] != MAGIC) {
+                return JSONUtil.toBean(legacy(data), type);
+            }
+            Frame frame = frame(data);
+            return frame == null ? null : frame.codec.decode(frame.payload, frame.offset, frame.length, type);
+        } catch (Exception e) {
+            log.warn("缓存值解码失败, type={}", type.getSimpleName(), e);
+            return null;
+        }
+    }
+
+    public <T> List<T> decodeList(byte[] data, Class<T> type) {
+        try {
+            if (data[0] != MAGIC) {
+                return JSONUtil.toList(JSONUtil.parseArray(legacy(data)), type);
+            }
+            Frame frame = frame(data);
+            return frame == null ? null : frame.codec.decodeList(frame.payload, frame.offset, frame.length, type);
+        } catch (Exception e) {
+            log.warn("缓存值解码失败, type=List<{}>", type.getSimpleName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 解码逻辑过期的缓存值
+     * @return data为解码后的对象；无法解码时返回null
+     */
+    public <T> RedisData decodeWithExpire(byte[] data, Class<T> type) {
+        try {
+            RedisData redisData;
+            if (data[0] != MAGIC) {
+                // 旧格式：JSON包装的RedisData，data需要再转换一次
+                redisData = JSONUtil.toBean(legacy(data), RedisData.class);
+                redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+                return redisData;
+            }
+            Frame frame = frame(data);
+            if (frame == null || frame.expireMillis < 0) {
+                return null;
+            }
+            redisData = new RedisData();
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(frame.expireMillis), ZoneId.systemDefault()));
+            redisData.setData(frame.codec.decode(frame.payload, frame.offset, frame.length, type));
+            if (frame.rebuildMillis >= 0) {
+                redisData.setRebuildMillis((long) frame.rebuildMillis);
+            }
+            return redisData;
+        } catch (Exception e) {
+            log.warn("缓存值解码失败, type={}", type.getSimpleName(), e);
+            return null;
+        }
+    }
+
+    private byte[] encode(Object value, LocalDateTime expireTime, int rebuildMillis) {
+        byte[] payload;
+        try {
+            payload = writer.encode(value);
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存值编码失败: " + value.getClass().getSimpleName(), e);
+        }
+        byte flags = 0;
+        int rawLength = payload.length;
+        int threshold = cacheProperties.getCodec().getCompressThreshold();
+        if (threshold > 0 && payload.length >= threshold) {
+            byte[] compressed = deflate(payload);
+            // 压缩后没有变小则不压缩
+            if (compressed.length < payload.length) {
+                payload = compressed;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+        if (expireTime != null) {
+            flags |= FLAG_EXPIRE;
+            if (rebuildMillis > 0) {
+                flags |= FLAG_REBUILD_COST;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH
+                + ((flags & FLAG_EXPIRE) != 0 ? Long.BYTES : 0)
+                + ((flags & FLAG_REBUILD_COST) != 0 ? Integer.BYTES : 0)
+                + ((flags & FLAG_DEFLATE) != 0 ? Integer.BYTES : 0)
+                + payload.length);
+        buffer.put(MAGIC).put(VERSION).put(writer.id()).put(flags);
+        if (expireTime != null) {
+            buffer.putLong(expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        if ((flags & FLAG_REBUILD_COST) != 0) {
+            buffer.putInt(rebuildMillis);
+        }
+        if ((flags & FLAG_DEFLATE) != 0) {
+            buffer.putInt(rawLength);
+        }
+        return buffer.put(payload).array();
+    }
+
+    // 解析格式头，版本或codec未知时返回null
+    private Frame frame(byte[] data) throws DataFormatException {
+        if (data.length < HEADER_LENGTH || data[1] != VERSION || data[2] <= 0 || codecs[data[2]] == null) {
+            log.warn("未知的缓存值格式, version={}, codec={}", data.length > 1 ? data[1] : null, data.length > 2 ? data[2] : null);
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+        byte flags = data[3];
+        long expireMillis = (flags & FLAG_EXPIRE) != 0 ? buffer.getLong() : -1;
+        int rebuildMillis = (flags & FLAG_REBUILD_COST) != 0 ? buffer.getInt() : -1;
+        Frame frame = new Frame(codecs[data[2]], expireMillis, rebuildMillis);
+        if ((flags & FLAG_DEFLATE) != 0) {
+            int rawLength = buffer.getInt();
+            frame.payload = inflate(data, buffer.position(), rawLength);
+            frame.offset = 0;
+            frame.length = frame.payload.length;
+        } else {
+            frame.payload = data;
+            frame.offset = buffer.position();
+            frame.length = buffer.remaining();
+        }
+        return frame;
+    }
+
+    private static String legacy(byte[] data) {
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length];
+        int length = deflater.deflate(buffer);
+        // 缓冲区写满说明压缩后不小于原数据
+        return deflater.finished() ? Arrays.copyOf(buffer, length) : data;
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int rawLength) throws DataFormatException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data, offset, data.length - offset);
+        byte[] result = new byte[rawLength];
+        int length = inflater.inflate(result);
+        if (length != rawLength || !inflater.finished()) {
+            throw new DataFormatException("解压后长度不一致");
+        }
+        return result;
+    }
+
+    private static class Frame {
+        final CacheCodec codec;
+        // 逻辑过期时间，-1表示没有
+        final long expireMillis;
+        // 重建耗时，-1表示没有
+        final int rebuildMillis;
+        byte[] payload;
+        int offset;
+        int length;
+
+        Frame(CacheCodec codec, long expireMillis, int rebuildMillis) {
+            this.codec = codec;
+            this.expireMillis = expireMillis;
+            this.rebuildMillis = rebuildMillis;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时预热缓存：热门商铺、商铺类型列表、按类型的商铺geo集合。
+ * ApplicationRunner在应用报告就绪（ReadinessState.ACCEPTING_TRAFFIC，/actuator/health/readiness）之前执行，
+ * 预热完成前负载均衡不会把流量转发到本节点，避免冷启动时大量请求穿透到数据库。
+ * 数据库按页并行读取（hmdp.cache.warmup.threads），每页一次pipeline写入redis；
+ * 单个目标失败只记录日志，不影响启动（未预热的key在第一次访问时加载）。
+ * 进度输出到日志，各目标耗时和写入的key数记录在 cache.warmup.duration、cache.warmup.keys
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+    public static final String MODE_LOGICAL = "logical";
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        CacheProperties.Warmup config = cacheProperties.getWarmup();
+        if (!config.isEnabled()) {
+            return;
+        }
+        long start = System.nanoTime();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, config.getThreads()), r -> {
+            Thread thread = new Thread(r, "cache-warmup-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int keys = 0;
+        try {
+            if (config.isShopTypes()) {
+                keys += warm("shop-type", this::warmShopTypes);
+            }
+            if (config.getHotShops() > 0 || !config.getShopIds().isEmpty()) {
+                keys += warm("shop", () -> warmShops(pool));
+            }
+            if (config.isGeo()) {
+                keys += warm("geo", () -> warmGeo(pool));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - start;
+        timer("total", "success").record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("缓存预热完成: {}个key, 耗时{}ms", keys, TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    // 执行一个预热目标，返回写入的key数（失败返回0）
+    private int warm(String target, Callable<Integer> task) {
+        log.info("缓存预热开始: {}", target);
+        long start = System.nanoTime();
+        try {
+            int keys = task.call();
+            long elapsed = System.nanoTime() - start;
+            timer(target, "success").record(elapsed, TimeUnit.NANOSECONDS);
+            Counter.builder("cache.warmup.keys").tag("target", target)
+                    .description("启动预热写入的key数（geo为写入的商铺数）")
+                    .register(meterRegistry)
+                    .increment(keys);
+            log.info("缓存预热完成: {}, {}个key, 耗时{}ms", target, keys, TimeUnit.NANOSECONDS.toMillis(elapsed));
+            return keys;
+        } catch (Exception e) {
+            long elapsed = System.nanoTime() - start;
+            timer(target, "failed").record(elapsed, TimeUnit.NANOSECONDS);
+            log.error("缓存预热失败: {}, 耗时{}ms", target, TimeUnit.NANOSECONDS.toMillis(elapsed), e);
+            return 0;
+        }
+    }
+
+    // 商铺类型列表，与ShopTypeServiceImpl.queryTypeList写入的key和格式一致，覆盖可能过时的旧值
+    private int warmShopTypes() {
+        List<ShopType> types = shopTypeService.query().orderByAsc("sort").list();
+        cacheClient.setPersistent(CACHE_SHOP_Type_KEY, types);
+        return 1;
+    }
+
+    // 热门商铺：配置的id + 销量最高的hotShops个（还没有访问统计，以销量作为热度）
+    private int warmShops(ExecutorService pool) throws Exception {
+        CacheProperties.Warmup config = cacheProperties.getWarmup();
+        Set<Long> ids = new LinkedHashSet<>(config.getShopIds());
+        if (config.getHotShops() > 0) {
+            ids.addAll(shopService.listObjs(new QueryWrapper<Shop>().select("id").orderByDesc("sold")
+                    .last("limit " + config.getHotShops()), id -> Long.valueOf(id.toString())));
+        }
+        boolean logical = MODE_LOGICAL.equals(config.getShopMode());
+        List<Callable<Integer>> pages = new ArrayList<>();
+        for (List<Long> page : CollUtil.split(ids, config.getPageSize())) {
+            pages.add(() -> {
+                List<Shop> shops = shopService.listByIds(page);
+                if (logical) {
+                    cacheClient.setBatchWithLogicalExpire(CACHE_SHOP_KEY, shops, Shop::getId, CACHE_SHOP_TTL, TimeUnit.SECONDS);
+                } else {
+                    cacheClient.setBatch(CACHE_SHOP_KEY, shops, Shop::getId, CACHE_SHOP_TTL, TimeUnit.SECONDS);
+                }
+                return shops.size();
+            });
+        }
+        return runPages("shop", pages, pool);
+    }
+
+    /**
+     * 按类型重建商铺geo集合：按id区间并行读取，写入临时key，全部成功后RENAME为正式key，
+     * 替换前查询仍读旧集合，失败时删除临时key，旧集合不受影响
+     */
+    private int warmGeo(ExecutorService pool) throws Exception {
+        Shop first = shopService.query().select("id").orderByAsc("id").last("limit 1").one();
+        if (first == null) {
+            return 0;
+        }
+        Shop last = shopService.query().select("id").orderByDesc("id").last("limit 1").one();
+        int pageSize = cacheProperties.getWarmup().getPageSize();
+        // 多个节点同时启动时各自使用自己的临时key
+        String token = UUID.fastUUID().toString(true);
+        Set<Long> typeIds = ConcurrentHashMap.newKeySet();
+        List<Callable<Integer>> pages = new ArrayList<>();
+        for (long from = first.getId(); from <= last.getId(); from += pageSize) {
+            long to = Math.min(from + pageSize - 1, last.getId());
+            long begin = from;
+            pages.add(() -> {
+                List<Shop> shops = shopService.query().select("id", "type_id", "x", "y").between("id", begin, to).list();
+                Map<Long, Map<byte[], Point>> byType = new HashMap<>();
+                for (Shop shop : shops) {
+                    byType.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                            .put(bytes(shop.getId().toString()), new Point(shop.getX(), shop.getY()));
+                }
+                typeIds.addAll(byType.keySet());
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Map.Entry<Long, Map<byte[], Point>> entry : byType.entrySet()) {
+                        connection.geoCommands().geoAdd(bytes(geoWarmupKey(entry.getKey(), token)), entry.getValue());
+                    }
+                    return null;
+                });
+                return shops.size();
+            });
+        }
+        int shops;
+        try {
+            shops = runPages("geo", pages, pool);
+        } catch (Exception e) {
+            List<String> tmpKeys = new ArrayList<>(typeIds.size());
+            for (Long typeId : typeIds) {
+                tmpKeys.add(geoWarmupKey(typeId, token));
+            }
+            stringRedisTemplate.delete(tmpKeys);
+            throw e;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long typeId : typeIds) {
+                connection.keyCommands().rename(bytes(geoWarmupKey(typeId, token)), bytes(SHOP_GEO_KEY + typeId));
+            }
+            return null;
+        });
+        return shops;
+    }
+
+    // 并行执行各页，按10%输出进度，任意一页失败则抛出异常
+    private int runPages(String target, List<Callable<Integer>> pages, ExecutorService pool) throws Exception {
+        int total = pages.size();
+        int step = Math.max(1, total / 10);
+        AtomicInteger done = new AtomicInteger();
+        List<Future<Integer>> futures = new ArrayList<>(total);
+        for (Callable<Integer> page : pages) {
+            futures.add(pool.submit(() -> {
+                int rows = page.call();
+                int finished = done.incrementAndGet();
+                if (finished % step == 0 || finished == total) {
+                    log.info("缓存预热进度: {} {}/{}页", target, finished, total);
+                }
+                return rows;
+            }));
+        }
+        int rows = 0;
+        try {
+            for (Future<Integer> future : futures) {
+                rows += future.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        return rows;
+    }
+
+    private Timer timer(String target, String result) {
+        return Timer.builder("cache.warmup.duration")
+                .tag("target", target)
+                .tag("result", result)
+                .description("启动预热耗时，target=total为整个预热")
+                .register(meterRegistry);
+    }
+
+    private static String geoWarmupKey(Long typeId, String token) {
+        return SHOP_GEO_KEY + typeId + SHOP_GEO_WARMUP_SUFFIX + token;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -10,4 +10,7 @@ public class ErrorMessageConstants {
     public static final String SECKILL_NONE = "秒杀已抢光";
     public static final String SECKILL_NOT_REPEAT = "不要重复下单";
     public static final String SECKILL_HOLD = "用户已经抢到";
+    public static final String SECKILL_NOT_BEGIN = "秒杀尚未开始";
+    public static final String SECKILL_END = "秒杀已经结束";
+    public static final String TOO_MANY_REQUESTS = "请求过于频繁，请稍后再试";
 }
@@ -0,0 +1,228 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点key探测：CacheClient每次读redis时（本地缓存命中的不算）按抽样比例记录key，
+ * count-min sketch估算当前窗口内各key的读取次数，达到阈值的key升级为热点（最多topK个），
+ * 热点key的redis值在LocalCache中保存短TTL的副本，之后的读取不再访问redis，避免单个key打满所在分片。
+ * 热点单独精确计数，窗口结束时读取次数低于 threshold * demoteRatio 的降级并清除副本；
+ * 热点已满时超过阈值的key先记为候选，窗口结束时替换本窗口最冷的热点。
+ * 当前热点列表：GET /actuator/hotkeys；指标 cache.hotkey.count、cache.hotkey.changes{action=promote/demote}
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private LocalCache localCache;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // depth行 * width列的计数器，没有开启时为null
+    private AtomicLongArray sketch;
+    private int depth;
+    private int mask;
+    // 抽样时每次记录的计数
+    private long weight;
+    // 当前热点
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+    // 热点已满时达到阈值的key -> 估算次数，窗口结束时处理
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+
+    private Counter promoted;
+    private Counter demoted;
+
+    @PostConstruct
+    private void init() {
+        CacheProperties.HotKey config = cacheProperties.getHotKey();
+        if (!config.isEnabled()) {
+            return;
+        }
+        depth = Math.max(1, config.getDepth());
+        int width = Integer.highestOneBit(Math.max(2, config.getWidth()) - 1) << 1;
+        mask = width - 1;
+        weight = config.getSampleRate() >= 1 ? 1 : Math.max(1, Math.round(1 / config.getSampleRate()));
+        sketch = new AtomicLongArray(depth * width);
+        promoted = change("promote");
+        demoted = change("demote");
+        Gauge.builder("cache.hotkey.count", hotKeys, Map::size)
+                .description("当前热点key数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次读取（按抽样比例）
+     * @return key是否为热点，是则应读取本地副本
+     */
+    public boolean record(String key) {
+        if (sketch == null) {
+            return false;
+        }
+        HotKey hot = hotKeys.get(key);
+        if (!sampled()) {
+            return hot != null;
+        }
+        if (hot != null) {
+            hot.hits.add(weight);
+            return true;
+        }
+        long estimate = increment(key);
+        if (estimate < cacheProperties.getHotKey().getThreshold()) {
+            return false;
+        }
+        return promote(key, estimate);
+    }
+
+    /**
+     * 窗口结束：降级读取次数过低的热点，处理候选，清零sketch
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.window-ms:5000}")
+    public void rotate() {
+        if (sketch == null) {
+            return;
+        }
+        CacheProperties.HotKey config = cacheProperties.getHotKey();
+        long demoteBelow = (long) (config.getThreshold() * config.getDemoteRatio());
+        for (Map.Entry<String, HotKey> entry : hotKeys.entrySet()) {
+            HotKey hot = entry.getValue();
+            hot.lastWindowHits = hot.hits.sumThenReset();
+            if (hot.lastWindowHits < demoteBelow) {
+                demote(entry.getKey(), hot.lastWindowHits);
+            }
+        }
+        // 候选按估算次数从高到低，替换本窗口读取次数更少的热点
+        List<Map.Entry<String, Long>> pending = new ArrayList<>(candidates.entrySet());
+        candidates.clear();
+        pending.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        for (Map.Entry<String, Long> candidate : pending) {
+            if (hotKeys.size() >= config.getTopK()) {
+                Map.Entry<String, HotKey> coldest = coldest();
+                if (coldest == null || coldest.getValue().lastWindowHits >= candidate.getValue()) {
+                    break;
+                }
+                demote(coldest.getKey(), coldest.getValue().lastWindowHits);
+            }
+            promote(candidate.getKey(), candidate.getValue());
+        }
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, 0);
+        }
+    }
+
+    /**
+     * 当前热点，按上一个窗口的读取次数从高到低，供 /actuator/hotkeys 使用
+     */
+    public List<Map<String, Object>> snapshot() {
+        List<Map.Entry<String, HotKey>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().lastWindowHits, a.getValue().lastWindowHits));
+        List<Map<String, Object>> result = new ArrayList<>(entries.size());
+        for (Map.Entry<String, HotKey> entry : entries) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", entry.getKey());
+            item.put("lastWindowHits", entry.getValue().lastWindowHits);
+            item.put("currentWindowHits", entry.getValue().hits.sum());
+            item.put("promotedAt", Instant.ofEpochMilli(entry.getValue().promotedAt).toString());
+            result.add(item);
+        }
+        return result;
+    }
+
+    // 热点未满时直接升级，已满时记为候选
+    private boolean promote(String key, long estimate) {
+        if (hotKeys.size() >= cacheProperties.getHotKey().getTopK()) {
+            candidates.merge(key, estimate, Math::max);
+            return false;
+        }
+        HotKey hot = new HotKey(estimate);
+        if (hotKeys.putIfAbsent(key, hot) == null) {
+            promoted.increment();
+            log.info("热点key升级: {}, 估算读取次数={}", key, estimate);
+        }
+        return true;
+    }
+
+    private void demote(String key, long hits) {
+        if (hotKeys.remove(key) != null) {
+            localCache.evictHot(key);
+            demoted.increment();
+            log.info("热点key降级: {}, 窗口读取次数={}", key, hits);
+        }
+    }
+
+    private Map.Entry<String, HotKey> coldest() {
+        Map.Entry<String, HotKey> coldest = null;
+        for (Map.Entry<String, HotKey> entry : hotKeys.entrySet()) {
+            if (coldest == null || entry.getValue().lastWindowHits < coldest.getValue().lastWindowHits) {
+                coldest = entry;
+            }
+        }
+        return coldest;
+    }
+
+    // 各行计数加weight，返回最小值作为估算次数（只会高估）
+    private long increment(String key) {
+        int h1 = spread(key.hashCode());
+        int h2 = spread(h1 ^ 0x9E3779B9) | 1;
+        int width = mask + 1;
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int index = i * width + ((h1 + i * h2) & mask);
+            estimate = Math.min(estimate, sketch.addAndGet(index, weight));
+        }
+        return estimate;
+    }
+
+    private boolean sampled() {
+        double rate = cacheProperties.getHotKey().getSampleRate();
+        return rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    // murmur3的最终混合，打散String.hashCode的低位
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private Counter change(String action) {
+        return Counter.builder("cache.hotkey.changes")
+                .description("热点key升级/降级次数")
+                .tag("action", action)
+                .register(meterRegistry);
+    }
+
+    private static class HotKey {
+        // 当前窗口的读取次数（升级时为sketch的估算值）
+        final LongAdder hits = new LongAdder();
+        final long promotedAt = System.currentTimeMillis();
+        volatile long lastWindowHits;
+
+        HotKey(long estimate) {
+            hits.add(estimate);
+            lastWindowHits = estimate;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.hmdp.utils;
+
+/**
+ * 全局id生成器，hmdp.id.mode选择实现：
+ * redis、segment 使用RedisWorker（redis自增序列号），snowflake 使用SnowflakeIdGenerator（本地生成）
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成全局唯一id，高31位为秒级时间戳，低32位在同一秒内唯一
+     * @param keyPrefix 业务前缀（例如order），snowflake模式下不区分业务
+     * @return 全局唯一id
+     */
+    long nextId(String keyPrefix);
+}
@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 基于jackson ObjectMapper的编解码器，子类只需提供不同的数据格式（JSON、smile）
+ */
+public abstract class JacksonCacheCodec implements CacheCodec {
+    private final ObjectMapper mapper;
+
+    protected JacksonCacheCodec(ObjectMapper mapper) {
+        // 忽略null字段和实体新增/删除的字段，实体变更后旧缓存仍能读取
+        this.mapper = mapper
+                .registerModule(new JavaTimeModule())
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    /**
+     * 时间字段按ISO字符串写入（与hutool写入的旧缓存可读性一致），供JSON格式使用
+     */
+    protected static ObjectMapper withIsoDates(ObjectMapper mapper) {
+        return mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        return mapper.writeValueAsBytes(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] data, int offset, int length, Class<T> type) throws IOException {
+        return mapper.readValue(data, offset, length, type);
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] data, int offset, int length, Class<T> type) throws IOException {
+        return mapper.readValue(data, offset, length, mapper.getTypeFactory().constructCollectionType(List.class, type));
+    }
+}
@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+/**
+ * JSON编解码（jackson），可读，替代hutool JSONUtil
+ */
+@Component
+public class JsonCacheCodec extends JacksonCacheCodec {
+    public static final byte ID = 1;
+
+    public JsonCacheCodec() {
+        super(withIsoDates(new ObjectMapper()));
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "json";
+    }
+}
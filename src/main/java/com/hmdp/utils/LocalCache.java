@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.CacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * CacheClient的JVM一级缓存（caffeine），按key前缀开启，每个前缀单独限制数量和过期时间。
+ * 缓存的是反序列化后的对象，被本节点所有请求共享，CacheClient读取时返回拷贝，不能把缓存中的对象直接交给调用方。
+ * 删除缓存时通过redis发布订阅广播key，所有节点清除本地缓存；漏收广播时最多保留ttlSeconds。
+ * 命中率等统计注册到micrometer（cache.gets{cache=前缀,result=hit/miss}等）。
+ * 另外保存HotKeyDetector探测到的热点key的redis原始值（不区分前缀，短TTL），同样随失效广播清除，统计为cache.gets{cache=hotkey}。
+ */
+@Slf4j
+@Component
+public class LocalCache {
+    // 缓存的空值（redis中的""），与未命中区分
+    public static final Object NULL_VALUE = new Object();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // key前缀 -> 本地缓存
+    private final Map<String, Cache<String, Object>> caches = new ConcurrentHashMap<>();
+    // 热点key -> redis中的原始值，没有开启热点探测时为null
+    private Cache<String, byte[]> hotCopies;
+
+    @PostConstruct
+    private void init() {
+        CacheProperties.Local config = cacheProperties.getLocal();
+        if (config.isEnabled()) {
+            for (CacheProperties.Prefix prefix : config.getCaches()) {
+                Cache<String, Object> cache = Caffeine.newBuilder()
+                        .maximumSize(prefix.getMaxSize())
+                        .expireAfterWrite(prefix.getTtlSeconds(), TimeUnit.SECONDS)
+                        .recordStats()
+                        .build();
+                CaffeineCacheMetrics.monitor(meterRegistry, cache, prefix.getPrefix());
+                caches.put(prefix.getPrefix(), cache);
+            }
+        }
+        CacheProperties.HotKey hotKey = cacheProperties.getHotKey();
+        if (hotKey.isEnabled()) {
+            hotCopies = Caffeine.newBuilder()
+                    .maximumSize(hotKey.getTopK())
+                    .expireAfterWrite(hotKey.getLocalTtlMs(), TimeUnit.MILLISECONDS)
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, hotCopies, "hotkey");
+        }
+        if (!isEnabled()) {
+            return;
+        }
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                evict(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 前缀对应的本地缓存，没有开启时返回null
+     */
+    public Cache<String, Object> get(String keyPrefix) {
+        return caches.get(keyPrefix);
+    }
+
+    /**
+     * 读取热点key的本地副本，没有时调用loader读redis并保存（loader返回null时不保存）
+     */
+    public byte[] getHot(String key, Function<String, byte[]> loader) {
+        return hotCopies == null ? loader.apply(key) : hotCopies.get(key, loader);
+    }
+
+    public byte[] getHotIfPresent(String key) {
+        return hotCopies == null ? null : hotCopies.getIfPresent(key);
+    }
+
+    public void putHot(String key, byte[] value) {
+        if (hotCopies != null && value != null) {
+            hotCopies.put(key, value);
+        }
+    }
+
+    /**
+     * 热点降级时清除本节点的副本
+     */
+    public void evictHot(String key) {
+        if (hotCopies != null) {
+            hotCopies.invalidate(key);
+        }
+    }
+
+    /**
+     * 是否开启了本地缓存（前缀缓存或热点副本），没有开启时不需要广播失效
+     */
+    public boolean isEnabled() {
+        return !caches.isEmpty() || hotCopies != null;
+    }
+
+    /**
+     * 只清除本节点的本地缓存，其它节点由调用方广播（CacheInvalidator在删除redis的pipeline中发布）
+     */
+    public void evictLocal(Collection<String> keys) {
+        for (String key : keys) {
+            evict(key);
+        }
+    }
+
+    /**
+     * 清除所有节点的本地缓存
+     */
+    public void invalidate(String key) {
+        if (!isEnabled()) {
+            return;
+        }
+        evict(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    private void evict(String key) {
+        evictHot(key);
+        caches.forEach((prefix, cache) -> {
+            if (key.startsWith(prefix)) {
+                cache.invalidate(key);
+            }
+        });
+    }
+}
@@ -0,0 +1,455 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.mapper.BloomMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOOM_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOOM_TTL;
+
+/**
+ * 布隆过滤器（解决缓存穿透），位图保存在redis中由所有节点共享。
+ * 元数据 bloom:{name}:meta 记录当前位图的规格 current（version:m:k）、插入数和已写入的最大id maxId，位图为 bloom:{name}:{version}。
+ * 启动后在定时任务线程中加载，还没有位图则从表中分页读取全部id，在本地构建后一次写入redis，不阻塞应用启动；
+ * 加载完成前按可能存在处理。
+ * 定时检查时补录id大于maxId的行：不经过saveShop、saveBlog插入的数据（导入、其它服务写入）最多一个检查间隔后可以查到。
+ * 新增数据后调用add：同时写入正在构建的位图（building）和宽限期内的旧位图（previous），构建和切换版本期间不会漏判。
+ * 定时按位图中1的比例估算误判率（比例的k次方），超过rebuildFpp时按当前行数重新构建并切换版本。
+ * 可选本地位图副本：定时从redis拉取，新增通过发布订阅同步，判断时不访问redis。
+ * 过滤器未就绪或redis异常时按可能存在处理，退化为原来的空值缓存。
+ */
+@Slf4j
+@Component
+public class RedisBloomFilter {
+    // redis位图最大长度
+    private static final long MAX_BITS = 1L << 32;
+    // 构建时每次读取的id数
+    private static final int SCAN_BATCH = 1000;
+
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> PROMOTE_SCRIPT;
+    static {
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setLocation(new ClassPathResource("bloom_add.lua"));
+        ADD_SCRIPT.setResultType(Long.class);
+        PROMOTE_SCRIPT = new DefaultRedisScript<>();
+        PROMOTE_SCRIPT.setLocation(new ClassPathResource("bloom_promote.lua"));
+        PROMOTE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BloomMapper bloomMapper;
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 过滤器名称 -> 状态
+    private final Map<String, FilterState> filters = new ConcurrentHashMap<>();
+    // CacheClient的key前缀 -> 状态
+    private final Map<String, FilterState> prefixes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        CacheProperties.Bloom config = cacheProperties.getBloom();
+        if (!config.isEnabled()) {
+            return;
+        }
+        for (CacheProperties.Filter filter : config.getFilters()) {
+            FilterState state = new FilterState(filter);
+            filters.put(filter.getName(), state);
+            if (StrUtil.isNotBlank(filter.getKeyPrefix())) {
+                prefixes.put(filter.getKeyPrefix(), state);
+            }
+        }
+        if (config.isLocalSnapshot()) {
+            redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                    onAdd(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(BLOOM_ADD_CHANNEL));
+        }
+    }
+
+    /**
+     * id是否可能存在，false表示一定不存在
+     * @param name 过滤器名称
+     */
+    public boolean mightContain(String name, Object id) {
+        FilterState state = filters.get(name);
+        return state == null || mightContain(state, id);
+    }
+
+    /**
+     * 按CacheClient的key前缀判断，前缀没有配置过滤器时返回true
+     */
+    public boolean mightContainKey(String keyPrefix, Object id) {
+        FilterState state = prefixes.get(keyPrefix);
+        return state == null || mightContain(state, id);
+    }
+
+    /**
+     * 过滤器判断存在但数据库中没有（误判）
+     */
+    public void recordFalsePositive(String keyPrefix) {
+        FilterState state = prefixes.get(keyPrefix);
+        if (state != null) {
+            state.falsePositives.increment();
+        }
+    }
+
+    /**
+     * 新增数据后加入过滤器（数据库事务提交后调用，否则重建时可能读不到）
+     * @param name 过滤器名称
+     */
+    public void add(String name, Object id) {
+        FilterState state = filters.get(name);
+        if (state == null) {
+            return;
+        }
+        String metaKey = metaKey(name);
+        try {
+            Map<Object, Object> meta = stringRedisTemplate.opsForHash().entries(metaKey);
+            Spec current = Spec.parse(meta.get("current"));
+            if (current == null) {
+                // 还没有构建过，构建时会从表中读到
+                return;
+            }
+            setBits(name, current, id, false);
+            stringRedisTemplate.opsForHash().increment(metaKey, "count", 1);
+            setBits(name, Spec.parse(meta.get("building")), id, true);
+            setBits(name, Spec.parse(meta.get("previous")), id, true);
+            if (cacheProperties.getBloom().isLocalSnapshot()) {
+                // 本节点直接写入副本，其它节点收到广播后写入（广播到达前的短时间内会误判新数据不存在）
+                onAdd(name + ":" + id);
+                stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, name + ":" + id);
+            }
+        } catch (Exception e) {
+            // 加入失败会导致新数据被误判为不存在，下次检查时重建
+            state.rebuildRequested = true;
+            log.error("加入布隆过滤器失败，等待重建, name={}, id={}", name, id, e);
+        }
+    }
+
+    /**
+     * 定时检查（启动后立即执行一次）：刷新当前位图版本，补录maxId之后的行，刷新本地副本，没有位图或估算误判率过高时重建
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.cache.bloom.check-interval-ms:60000}")
+    public void check() {
+        for (FilterState state : filters.values()) {
+            try {
+                check(state);
+            } catch (Exception e) {
+                log.warn("检查布隆过滤器异常, name={}", state.filter.getName(), e);
+            }
+        }
+    }
+
+    private void check(FilterState state) {
+        String name = state.filter.getName();
+        Map<Object, Object> meta = stringRedisTemplate.opsForHash().entries(metaKey(name));
+        Spec current = Spec.parse(meta.get("current"));
+        if (current != null) {
+            catchUp(state, current, meta.get("maxId"));
+            Long ones = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.bitCount(bytes(bitmapKey(name, current.version))));
+            state.fpp = Math.pow((ones == null ? 0 : ones) / (double) current.m, current.k);
+            state.current = current;
+            loadSnapshot(state, current);
+        }
+        if (current == null || state.rebuildRequested || state.fpp > state.filter.getRebuildFpp()) {
+            log.info("构建布隆过滤器, name={}, 估算误判率={}", name, state.fpp);
+            build(state);
+        }
+    }
+
+    // 把id大于maxId的行写入当前位图（走主键范围扫描，通常只有上次检查之后新增的行），
+    // 没有maxId的位图（之前的版本构建的）无法补录，重建
+    private void catchUp(FilterState state, Spec current, Object maxId) {
+        if (maxId == null) {
+            state.rebuildRequested = true;
+            return;
+        }
+        String name = state.filter.getName();
+        long lastId = Long.parseLong(maxId.toString());
+        long count = 0;
+        List<Long> ids;
+        do {
+            ids = bloomMapper.selectIds(state.filter.getTable(), lastId, SCAN_BATCH);
+            for (Long id : ids) {
+                setBits(name, current, id, true);
+                lastId = id;
+            }
+            count += ids.size();
+        } while (ids.size() == SCAN_BATCH);
+        if (count > 0) {
+            String metaKey = metaKey(name);
+            stringRedisTemplate.opsForHash().put(metaKey, "maxId", String.valueOf(lastId));
+            stringRedisTemplate.opsForHash().increment(metaKey, "count", count);
+            log.info("布隆过滤器补录新增数据, name={}, 条数={}, maxId={}", name, count, lastId);
+        }
+    }
+
+    private void loadSnapshot(FilterState state, Spec spec) {
+        if (!cacheProperties.getBloom().isLocalSnapshot()) {
+            return;
+        }
+        byte[] bits = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.get(bytes(bitmapKey(state.filter.getName(), spec.version))));
+        state.snapshot = bits == null ? null : new Snapshot(spec, bits);
+    }
+
+    // 从表中读取全部id构建新版本的位图，与构建期间add写入的位合并后切换为当前版本
+    private void build(FilterState state) {
+        CacheProperties.Filter filter = state.filter;
+        String name = filter.getName();
+        String lockKey = LOCK_BLOOM_KEY + name;
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", LOCK_BLOOM_TTL, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            // 其它节点正在构建
+            return;
+        }
+        try {
+            String metaKey = metaKey(name);
+            long rows = bloomMapper.count(filter.getTable());
+            Long version = stringRedisTemplate.opsForHash().increment(metaKey, "seq", 1);
+            Spec spec = Spec.of(version, Math.max(filter.getExpectedInsertions(), rows * 2), filter.getFpp());
+            String key = bitmapKey(name, version);
+            // 先创建位图并设置过期时间，构建中途失败时自动清理，切换版本时去掉过期时间
+            stringRedisTemplate.opsForValue().setBit(key, spec.m - 1, false);
+            stringRedisTemplate.expire(key, LOCK_BLOOM_TTL, TimeUnit.SECONDS);
+            stringRedisTemplate.opsForHash().put(metaKey, "building", spec.toString());
+
+            byte[] bits = new byte[(int) (spec.m >>> 3)];
+            long lastId = 0;
+            long count = 0;
+            List<Long> ids;
+            do {
+                ids = bloomMapper.selectIds(filter.getTable(), lastId, SCAN_BATCH);
+                for (Long id : ids) {
+                    for (long offset : spec.offsets(id.toString())) {
+                        bits[(int) (offset >>> 3)] |= 0x80 >>> (offset & 7);
+                    }
+                    lastId = id;
+                }
+                count += ids.size();
+            } while (ids.size() == SCAN_BATCH);
+
+            // 本地构建的位图写入临时key，再与构建期间add写入的位合并
+            byte[] tmpKey = bytes(key + ":tmp");
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.set(tmpKey, bits);
+                connection.bitOp(RedisStringCommands.BitOperation.OR, bytes(key), bytes(key), tmpKey);
+                connection.del(tmpKey);
+                return null;
+            });
+            stringRedisTemplate.execute(PROMOTE_SCRIPT, Collections.singletonList(metaKey),
+                    BLOOM_KEY + name + ":", spec.toString(), String.valueOf(count),
+                    String.valueOf(cacheProperties.getBloom().getGraceSeconds()), String.valueOf(lastId));
+            state.rebuildRequested = false;
+            state.current = spec;
+            state.fpp = 0;
+            // 从redis加载，包含构建期间add写入的位
+            loadSnapshot(state, spec);
+            log.info("布隆过滤器构建完成, name={}, 元素数={}, m={}, k={}", name, count, spec.m, spec.k);
+        } finally {
+            stringRedisTemplate.delete(lockKey);
+        }
+    }
+
+    private boolean mightContain(FilterState state, Object id) {
+        Spec spec = state.current;
+        if (spec == null) {
+            return true;
+        }
+        boolean present;
+        Snapshot snapshot = state.snapshot;
+        if (snapshot != null && snapshot.spec.version == spec.version) {
+            present = snapshot.mightContain(id.toString());
+        } else {
+            present = true;
+            BitFieldSubCommands commands = BitFieldSubCommands.create();
+            for (long offset : spec.offsets(id.toString())) {
+                commands = commands.get(BitFieldSubCommands.BitFieldType.unsigned(1)).valueAt(offset);
+            }
+            try {
+                List<Long> bits = stringRedisTemplate.opsForValue()
+                        .bitField(bitmapKey(state.filter.getName(), spec.version), commands);
+                if (bits != null && bits.contains(0L)) {
+                    present = false;
+                }
+            } catch (Exception e) {
+                log.warn("查询布隆过滤器失败, name={}", state.filter.getName(), e);
+                return true;
+            }
+        }
+        (present ? state.present : state.absent).increment();
+        return present;
+    }
+
+    private void setBits(String name, Spec spec, Object id, boolean mustExist) {
+        if (spec == null) {
+            return;
+        }
+        List<String> args = new ArrayList<>(spec.k + 1);
+        args.add(mustExist ? "1" : "0");
+        for (long offset : spec.offsets(id.toString())) {
+            args.add(String.valueOf(offset));
+        }
+        stringRedisTemplate.execute(ADD_SCRIPT, Collections.singletonList(bitmapKey(name, spec.version)), args.toArray());
+    }
+
+    // 其它节点新增的元素，写入本地副本
+    private void onAdd(String message) {
+        int index = message.lastIndexOf(':');
+        FilterState state = filters.get(message.substring(0, index));
+        Snapshot snapshot = state == null ? null : state.snapshot;
+        if (snapshot != null) {
+            snapshot.add(message.substring(index + 1));
+        }
+    }
+
+    private static String metaKey(String name) {
+        return BLOOM_KEY + name + ":meta";
+    }
+
+    private static String bitmapKey(String name, long version) {
+        return BLOOM_KEY + name + ":" + version;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private class FilterState {
+        final CacheProperties.Filter filter;
+        // 当前使用的位图版本，未构建时为null
+        volatile Spec current;
+        volatile Snapshot snapshot;
+        // 按位图中1的比例估算的误判率
+        volatile double fpp;
+        volatile boolean rebuildRequested;
+        final Counter present;
+        final Counter absent;
+        final Counter falsePositives;
+
+        FilterState(CacheProperties.Filter filter) {
+            this.filter = filter;
+            String name = filter.getName();
+            this.present = Counter.builder("bloom.checks").tag("filter", name).tag("result", "present")
+                    .description("布隆过滤器判断次数").register(meterRegistry);
+            this.absent = Counter.builder("bloom.checks").tag("filter", name).tag("result", "absent")
+                    .description("布隆过滤器判断次数").register(meterRegistry);
+            this.falsePositives = Counter.builder("bloom.false.positives").tag("filter", name)
+                    .description("布隆过滤器判断存在但数据库中没有的次数").register(meterRegistry);
+            Gauge.builder("bloom.fpp", this, s -> s.fpp).tag("filter", name)
+                    .description("按位图中1的比例估算的误判率").register(meterRegistry);
+        }
+    }
+
+    // 位图规格：版本、位数m、哈希函数个数k，元数据中保存为 version:m:k
+    private static class Spec {
+        final long version;
+        final long m;
+        final int k;
+
+        Spec(long version, long m, int k) {
+            this.version = version;
+            this.m = m;
+            this.k = k;
+        }
+
+        // 按元素数n和误判率fpp计算m、k，m按字节对齐
+        static Spec of(long version, long n, double fpp) {
+            n = Math.max(n, 1);
+            long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            m = Math.min(Math.max((m + 7) >>> 3 << 3, 8), MAX_BITS);
+            int k = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+            return new Spec(version, m, k);
+        }
+
+        static Spec parse(Object value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.toString().split(":");
+            return new Spec(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+        }
+
+        // 双重哈希：murmur3 128位的两个64位结果组合出k个位置
+        long[] offsets(String id) {
+            long[] hash = MurmurHash.hash128(id.getBytes(StandardCharsets.UTF_8));
+            long combined = hash[0];
+            long[] offsets = new long[k];
+            for (int i = 0; i < k; i++) {
+                combined += hash[1];
+                offsets[i] = (combined & Long.MAX_VALUE) % m;
+            }
+            return offsets;
+        }
+
+        @Override
+        public String toString() {
+            return version + ":" + m + ":" + k;
+        }
+    }
+
+    // 本地位图副本，位顺序与redis一致（每个字节的高位在前）
+    private static class Snapshot {
+        final Spec spec;
+        final byte[] bits;
+
+        Snapshot(Spec spec, byte[] bits) {
+            this.spec = spec;
+            this.bits = bits;
+        }
+
+        boolean mightContain(String id) {
+            for (long offset : spec.offsets(id)) {
+                int index = (int) (offset >>> 3);
+                if (index >= bits.length || (bits[index] & (0x80 >>> (offset & 7))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized void add(String id) {
+            for (long offset : spec.offsets(id)) {
+                int index = (int) (offset >>> 3);
+                if (index < bits.length) {
+                    bits[index] |= 0x80 >>> (offset & 7);
+                }
+            }
+        }
+    }
+}
@@ -12,19 +12,70 @@ public class RedisConstants {
     // shop
     public static final Long CACHE_SHOP_TTL = 1800L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    // blog、user（批量查询缓存）
+    public static final Long CACHE_BLOG_TTL = 1800L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    // user缓存的是UserDTO（不含手机号、密码），改用新的前缀，不再读取旧前缀下的User实体
+    public static final Long CACHE_USER_TTL = 1800L;
+    public static final String CACHE_USER_KEY = "cache:user:dto:";
     // shop type
     public static final String CACHE_SHOP_Type_KEY = "cache:shop:type";
+    // 缓存失效广播，消息为被删除的key，各节点清除本地缓存
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    // 布隆过滤器：位图 bloom:{name}:{version}，元数据 bloom:{name}:meta（hash）
+    public static final String BLOOM_KEY = "bloom:";
+    // 布隆过滤器名称，与配置hmdp.cache.bloom.filters中的name一致
+    public static final String BLOOM_SHOP = "shop";
+    public static final String BLOOM_BLOG = "blog";
+    // 布隆过滤器新增元素广播（消息为 name:id），用于更新各节点的本地位图副本
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+    public static final String LOCK_BLOOM_KEY = "lock:bloom:";
+    public static final Long LOCK_BLOOM_TTL = 600L;
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     // 秒杀订单分布式锁
-    public static final String SECKILL_ORDER_LOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_LOCK_KEY = "lock:order:";
 
     // 秒杀库存（秒杀优化）
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    // 预热的秒杀券信息hash（begin、end，毫秒时间戳），过期时间为秒杀结束后一天
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final Long SECKILL_VOUCHER_TTL = 1L;
+    // 秒杀已下单用户集合（一人一单）
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 秒杀券售罄/补货广播频道，消息为 voucherId:补货版本号
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_RESTOCK_CHANNEL = "seckill:restock";
+    // 秒杀券补货版本号，每次补货加1，售罄标记带版本号，补货前的标记作废
+    public static final String SECKILL_RESTOCK_EPOCH_KEY = "seckill:restock:epoch:";
+    // 秒杀订单stream消息队列（分区时为 stream.orders:{partition}）及消费者组
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    // 各订单stream已归档到的消息id（hash，field为stream key）
+    public static final String SECKILL_ORDER_ARCHIVED_KEY = "seckill:stream:archived";
+    // 超过重试次数的订单消息（死信）
+    public static final String SECKILL_ORDER_DLQ_KEY = "stream.orders.dlq";
+    // 订单消费节点注册表（zset，score为最近一次心跳时间）
+    public static final String SECKILL_CONSUMER_NODES_KEY = "seckill:consumer:nodes";
+    public static final Long SECKILL_CONSUMER_NODE_TTL = 10L;
+    // 订单分区租约（seckill:partition:lease:{partition}，value为持有者节点标识），有效期同SECKILL_CONSUMER_NODE_TTL
+    public static final String SECKILL_PARTITION_LEASE_KEY = "seckill:partition:lease:";
+    // 未支付订单超时取消任务（zset，score为截止时间，member为 订单id:券id:用户id:截止时间），由seckill.lua写入
+    public static final String SECKILL_CANCEL_SCHEDULE_KEY = "seckill:cancel:schedule";
+    // 已被节点认领、正在时间轮中等待的取消任务（zset，score为租约到期时间）
+    public static final String SECKILL_CANCEL_CLAIMED_KEY = "seckill:cancel:claimed";
+    // 接口限流滑动窗口计数（rate:limit:{规则:维度值}:窗口序号）
+    public static final String RATE_LIMIT_KEY = "rate:limit:";
+    // snowflake worker id租约（id:worker:lease:{workerId}，value为持有者实例id）
+    public static final String ID_WORKER_LEASE_KEY = "id:worker:lease:";
+    // 各worker id已经用到的时间戳上界（hash，field为workerId），新持有者从其之后开始生成
+    public static final String ID_WORKER_LAST_KEY = "id:worker:last";
     // 笔记点赞
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    // 预热时先写入临时key（shop:geo:{typeId}:warmup:{token}），全部写完后RENAME为正式key
+    public static final String SHOP_GEO_WARMUP_SUFFIX = ":warmup:";
     public static final String USER_SIGN_KEY = "sign:";
 }
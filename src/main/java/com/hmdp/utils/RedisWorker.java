@@ -1,22 +1,46 @@
 package com.hmdp.utils;
 
+import com.hmdp.config.IdProperties;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
-public class RedisWorker {
+public class RedisWorker implements IdGenerator {
     // 开始时间戳
-    private static final long BEGIN_TIMESTAMP = 1683676800L; // 2023/5/10
+    static final long BEGIN_TIMESTAMP = 1683676800L; // 2023/5/10
 
     private StringRedisTemplate stringRedisTemplate;
+    private IdProperties idProperties;
     // 序列号的位数
-    private static final int COUNT_BITS = 32;
-    public RedisWorker(StringRedisTemplate stringRedisTemplate) {
+    static final int COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    private static final long SECONDS_PER_DAY = 86400L;
+    // 号段模式：keyPrefix -> 号段缓冲
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    // 后台预取号段的线程
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RedisWorker(StringRedisTemplate stringRedisTemplate, IdProperties idProperties) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.idProperties = idProperties;
     }
 
     /**
@@ -24,7 +48,11 @@ public class RedisWorker {
      * @param keyPrefix keyPrefix
      * @return 全局唯一id
      */
+    @Override
     public long nextId(String keyPrefix){
+        if ("segment".equals(idProperties.getMode())) {
+            return nextIdFromSegment(keyPrefix);
+        }
         // 1、生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
@@ -32,7 +60,7 @@ public class RedisWorker {
 
         // 2、生成序列号（高并发情况下并不能保证时间戳唯一，所以还要redis生成序列号（自增命令具有原子性））
         // 2.1、获取当前日期（每天为一个新key，以防超出redis上限以及方便统计订单量）
-        String data = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String data = now.format(DATE_FORMATTER);
         // 2.2 自增长（不会空指针，如果没有该key，会自动创建）
         long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + data);
 
@@ -40,6 +68,113 @@ public class RedisWorker {
         return timestamp << COUNT_BITS | count;
     }
 
-}
+    /**
+     * 号段模式：用INCRBY一次从当天的key预留segmentSize个序列号，在JVM内用AtomicLong无锁分配，
+     * 剩余比例低于prefetchRatio时后台预取下一个号段，正常情况下生成id不访问redis。
+     * id格式与逐个INCR相同（高31位时间戳，低32位当天序列号）。号段属于预留它的那一天，
+     * 跨天后旧号段作废、改从新一天的key预留，否则会和其它节点新一天的序列号在同一秒内重复。
+     * 节点重启会丢弃未用完的号段，当天key的值因此大于实际订单数。
+     */
+    private long nextIdFromSegment(String keyPrefix) {
+        long nowSecond = localEpochSecond();
+        long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.day == day) {
+                long count = segment.next.getAndIncrement();
+                if (count <= segment.end) {
+                    // 每个序列号只会被一个线程拿到，正好一个线程触发预取
+                    if (count == segment.prefetchAt) {
+                        prefetch(buffer, day);
+                    }
+                    return (nowSecond - BEGIN_TIMESTAMP) << COUNT_BITS | count;
+                }
+            }
+            switchSegment(buffer, segment, day);
+        }
+    }
+
+    // 当前号段用完或跨天：优先换上预取好的号段，没有则同步预留
+    private void switchSegment(SegmentBuffer buffer, Segment exhausted, long day) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                // 其它线程已经切换过
+                return;
+            }
+            Segment prefetched = buffer.prefetched;
+            buffer.prefetched = null;
+            buffer.current = prefetched != null && prefetched.day == day ? prefetched : reserve(buffer.keyPrefix, day);
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, long day) {
+        if (!buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            PREFETCH_EXECUTOR.execute(() -> {
+                try {
+                    Segment segment = reserve(buffer.keyPrefix, day);
+                    synchronized (buffer) {
+                        buffer.prefetched = segment;
+                    }
+                } catch (Exception e) {
+                    // 预取失败时号段用完后同步预留
+                    log.warn("预取id号段失败, keyPrefix={}", buffer.keyPrefix, e);
+                } finally {
+                    buffer.loading.set(false);
+                }
+            });
+        } catch (Exception e) {
+            buffer.loading.set(false);
+            log.warn("提交id号段预取任务失败, keyPrefix={}", buffer.keyPrefix, e);
+        }
+    }
 
+    private Segment reserve(String keyPrefix, long day) {
+        int size = idProperties.getSegmentSize();
+        String data = LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+        Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + data, size);
+        if (end == null) {
+            throw new IllegalStateException("预留id号段失败, keyPrefix=" + keyPrefix);
+        }
+        long start = end - size + 1;
+        long prefetchAt = end - (long) (size * idProperties.getPrefetchRatio());
+        return new Segment(day, start, end, Math.max(prefetchAt, start));
+    }
+
+    // 本地时间的epoch秒，与LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)一致，但不创建日期对象
+    static long localEpochSecond() {
+        long millis = System.currentTimeMillis();
+        return (millis + TimeZone.getDefault().getOffset(millis)) / 1000;
+    }
 
+    // 号段 [start, end]，day为预留时使用的日期（epoch天）
+    private static class Segment {
+        final long day;
+        final AtomicLong next;
+        final long end;
+        // 分配到该序列号时触发预取
+        final long prefetchAt;
+
+        Segment(long day, long start, long end, long prefetchAt) {
+            this.day = day;
+            this.next = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+
+    private static class SegmentBuffer {
+        final String keyPrefix;
+        volatile Segment current;
+        // 后台预取好的下一个号段
+        volatile Segment prefetched;
+        final AtomicBoolean loading = new AtomicBoolean();
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+}
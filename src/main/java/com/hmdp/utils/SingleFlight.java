@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 进程内请求合并（single flight）：同一个key同时只有一个线程执行加载，其它线程等待它的结果，不再各自休眠轮询。
+ * 等待超过超时时间后执行调用方给出的降级逻辑（如返回旧值或报错），不会再自己执行加载，
+ * 避免加载线程卡住时所有等待的线程都去查数据库或竞争分布式锁。
+ */
+public class SingleFlight {
+    // key -> 正在执行的加载
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行加载，同一个key已经有线程在加载时等待它的结果（包括null和异常）
+     * @param timeoutMs 等待其它线程加载的超时时间
+     * @param onTimeout 等待超时后的返回值（可以抛出异常）
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> loader, long timeoutMs, Supplier<R> onTimeout) {
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> running = calls.putIfAbsent(key, call);
+        if (running == null) {
+            try {
+                R result = loader.get();
+                call.complete(result);
+                return result;
+            } catch (RuntimeException | Error e) {
+                call.completeExceptionally(e);
+                throw e;
+            } finally {
+                calls.remove(key, call);
+            }
+        }
+        try {
+            return (R) running.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return onTimeout.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待缓存加载被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
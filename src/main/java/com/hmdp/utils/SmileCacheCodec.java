@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 二进制编解码（jackson smile）：字段名、数字、时间按二进制写入，体积和解析开销都小于JSON
+ */
+@Component
+public class SmileCacheCodec extends JacksonCacheCodec {
+    public static final byte ID = 2;
+
+    public SmileCacheCodec() {
+        super(new ObjectMapper(new SmileFactory()));
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "smile";
+    }
+}
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.config.IdProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_LAST_KEY;
+import static com.hmdp.utils.RedisConstants.ID_WORKER_LEASE_KEY;
+import static com.hmdp.utils.RedisWorker.BEGIN_TIMESTAMP;
+import static com.hmdp.utils.RedisWorker.COUNT_BITS;
+
+/**
+ * snowflake风格的本地id生成器（hmdp.id.mode=snowflake时替代RedisWorker）。
+ * 沿用RedisWorker的布局：高31位为秒级时间戳（同一个起始时间、同样按本地时间），低32位拆成10位worker id + 22位序列号，
+ * 所以切换模式后新id仍然大于之前生成的id，不会与历史订单id冲突。
+ * worker id通过redis租约分配（id_worker_lease.lua），心跳续期；生成id只在本地CAS，redis短暂不可用不影响，
+ * 超过租约时长仍续期失败则停止生成，防止worker id被其它节点接管后重复。
+ * 同一秒的序列号（每个worker每秒约419万个）用完后等待下一秒。
+ * 时钟回拨：沿用上一次的时间戳继续生成，回拨超过maxBackwardSeconds时拒绝生成。
+ * 每次心跳记录该worker id可能用到的时间戳上界，新的持有者（包括重启后）从上界之后开始，跨进程也不会重复。
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(prefix = "hmdp.id", name = "mode", havingValue = "snowflake")
+public class SnowflakeIdGenerator implements IdGenerator {
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = COUNT_BITS - WORKER_BITS;
+    private static final int MAX_WORKERS = 1 << WORKER_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long WORKER_MASK = (long) (MAX_WORKERS - 1) << SEQUENCE_BITS;
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> LEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("id_worker_lease.lua"));
+        LEASE_SCRIPT.setResultType(List.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("id_worker_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IdProperties idProperties;
+    // 租约持有者标识
+    private final String owner = UUID.randomUUID().toString(true);
+    // 上一次生成的id（时间戳 | workerId | 序列号），生成时CAS推进
+    private final AtomicLong lastId = new AtomicLong();
+    private volatile int workerId = -1;
+    // 租约在本地的有效截止时间（System.nanoTime），按发起续期的时间计算，早于redis中的过期时间
+    private volatile long leaseDeadline = System.nanoTime();
+    private ScheduledExecutorService heartbeat;
+
+    public SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate, IdProperties idProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.idProperties = idProperties;
+    }
+
+    @PostConstruct
+    public void init() {
+        acquire();
+        long interval = idProperties.getSnowflake().getHeartbeatMs();
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "id-worker-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        int worker = workerId;
+        if (worker < 0) {
+            return;
+        }
+        workerId = -1;
+        leaseDeadline = System.nanoTime();
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Arrays.asList(ID_WORKER_LEASE_KEY + worker, ID_WORKER_LAST_KEY),
+                    owner, String.valueOf(worker), String.valueOf(lastId.get() >>> COUNT_BITS));
+        } catch (Exception e) {
+            log.warn("释放worker id租约失败, workerId={}", worker, e);
+        }
+    }
+
+    @Override
+    public long nextId(String keyPrefix) {
+        if (System.nanoTime() - leaseDeadline >= 0) {
+            throw new IllegalStateException("worker id租约已失效，暂停生成id");
+        }
+        long now = nowSecond();
+        long maxBackward = idProperties.getSnowflake().getMaxBackwardSeconds();
+        while (true) {
+            long last = lastId.get();
+            long second = last >>> COUNT_BITS;
+            long next;
+            if (now > second) {
+                next = now << COUNT_BITS | (last & WORKER_MASK);
+            } else if (second - now > maxBackward) {
+                throw new IllegalStateException("时钟回拨超过" + maxBackward + "秒，暂停生成id");
+            } else if ((last & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                // 同一秒内，或时钟回拨期间沿用上一次的时间戳
+                next = last + 1;
+            } else {
+                // 本秒序列号用完，等到下一秒
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                now = nowSecond();
+                continue;
+            }
+            if (lastId.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    // 申请worker id，从该worker id已用时间戳上界之后开始生成
+    private void acquire() {
+        IdProperties.Snowflake config = idProperties.getSnowflake();
+        long start = System.nanoTime();
+        @SuppressWarnings("unchecked")
+        List<Long> result = stringRedisTemplate.execute(LEASE_SCRIPT, Collections.singletonList(ID_WORKER_LAST_KEY),
+                ID_WORKER_LEASE_KEY, owner, String.valueOf(config.getLeaseMs()), String.valueOf(MAX_WORKERS),
+                String.valueOf(ThreadLocalRandom.current().nextInt(MAX_WORKERS)));
+        if (result == null || result.size() < 2) {
+            throw new IllegalStateException("没有可用的worker id");
+        }
+        int worker = result.get(0).intValue();
+        long begin = Math.max(nowSecond(), result.get(1) + 1);
+        // 本地时钟落后于上一个持有者：等待追上
+        long wait = begin - nowSecond() - config.getMaxBackwardSeconds();
+        if (wait > 0) {
+            if (TimeUnit.SECONDS.toMillis(wait) > config.getLeaseMs()) {
+                throw new IllegalStateException("时钟落后worker id " + worker + "已用时间戳" + wait + "秒");
+            }
+            log.warn("时钟落后worker id已用时间戳，等待{}秒, workerId={}", wait, worker);
+            try {
+                TimeUnit.SECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("申请worker id被中断", e);
+            }
+        }
+        lastId.set(begin << COUNT_BITS | (long) worker << SEQUENCE_BITS);
+        workerId = worker;
+        leaseDeadline = start + TimeUnit.MILLISECONDS.toNanos(config.getLeaseMs());
+        log.info("申请到worker id: {}", worker);
+    }
+
+    private void renew() {
+        int worker = workerId;
+        if (worker < 0) {
+            return;
+        }
+        try {
+            IdProperties.Snowflake config = idProperties.getSnowflake();
+            long start = System.nanoTime();
+            // 到租约失效前最多还能用到的时间戳
+            long bound = Math.max(lastId.get() >>> COUNT_BITS,
+                    nowSecond() + TimeUnit.MILLISECONDS.toSeconds(config.getLeaseMs()) + 1);
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Arrays.asList(ID_WORKER_LEASE_KEY + worker, ID_WORKER_LAST_KEY),
+                    owner, String.valueOf(config.getLeaseMs()), String.valueOf(worker), String.valueOf(bound));
+            if (renewed != null && renewed == 1) {
+                leaseDeadline = start + TimeUnit.MILLISECONDS.toNanos(config.getLeaseMs());
+                return;
+            }
+            log.warn("worker id租约已丢失，重新申请, workerId={}", worker);
+            acquire();
+        } catch (Exception e) {
+            // 租约在本地截止时间之前仍然有效，下次心跳重试
+            log.warn("续期worker id租约失败, workerId={}", worker, e);
+        }
+    }
+
+    private static long nowSecond() {
+        return RedisWorker.localEpochSecond() - BEGIN_TIMESTAMP;
+    }
+}
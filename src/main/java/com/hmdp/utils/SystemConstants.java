@@ -6,4 +6,7 @@ public class SystemConstants {
     public static final int USER_NICK_NAME_SUFFIX_LENGTH = 10;
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 订单状态：未支付、已取消
+    public static final int ORDER_STATUS_UNPAID = 1;
+    public static final int ORDER_STATUS_CANCELLED = 4;
 }
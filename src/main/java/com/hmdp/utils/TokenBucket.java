@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+/**
+ * 本地令牌桶：按rate（个/秒）匀速补充令牌，最多积攒capacity个，每个请求消耗一个令牌
+ */
+public class TokenBucket {
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double rate, int capacity) {
+        this.rate = rate;
+        this.capacity = Math.max(capacity, 1);
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * 令牌已经回满，说明最近没有请求，可以清理
+     */
+    public synchronized boolean isIdle() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+    }
+}
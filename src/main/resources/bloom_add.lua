@@ -0,0 +1,10 @@
+-- 布隆过滤器位图置位
+-- KEYS[1] 位图
+local mustExist = ARGV[1] -- 为1时位图不存在则跳过（构建中途失败、旧版本已过期），防止重新创建出没有过期时间的key
+if mustExist == '1' and redis.call('exists', KEYS[1]) == 0 then
+    return 0
+end
+for i = 2, #ARGV do
+    redis.call('setbit', KEYS[1], ARGV[i], 1)
+end
+return 1
@@ -0,0 +1,23 @@
+-- 布隆过滤器重建完成：新位图成为current，原current保留为previous并在宽限期后过期，清除building
+-- 位图规格格式为 version:m:k
+-- KEYS[1] 元数据hash
+local keyPrefix = ARGV[1] -- 位图key前缀 bloom:{name}:
+local spec = ARGV[2] -- 新位图规格
+local count = ARGV[3] -- 新位图中的元素数
+local grace = ARGV[4] -- 旧位图保留秒数
+local maxId = ARGV[5] -- 构建时读到的最大id，之后的行由定时检查补录
+local old = redis.call('hget', KEYS[1], 'current')
+local previous = redis.call('hget', KEYS[1], 'previous')
+if previous then
+    redis.call('del', keyPrefix .. string.match(previous, '^(%d+):'))
+end
+if old then
+    redis.call('hset', KEYS[1], 'previous', old)
+    redis.call('expire', keyPrefix .. string.match(old, '^(%d+):'), grace)
+else
+    redis.call('hdel', KEYS[1], 'previous')
+end
+redis.call('persist', keyPrefix .. string.match(spec, '^(%d+):'))
+redis.call('hset', KEYS[1], 'current', spec, 'count', count, 'maxId', maxId)
+redis.call('hdel', KEYS[1], 'building')
+return 1
@@ -0,0 +1,15 @@
+-- 申请snowflake worker id租约：从start开始依次尝试SET NX，返回{workerId, 该worker id已经用到的时间戳上界}，全部被占用时返回空
+-- KEYS[1] 各worker id已用时间戳上界（hash）
+local leasePrefix = ARGV[1] -- 租约key前缀
+local owner = ARGV[2] -- 实例id
+local leaseMs = ARGV[3] -- 租约时长（毫秒）
+local maxWorkers = tonumber(ARGV[4])
+local start = tonumber(ARGV[5])
+for i = 0, maxWorkers - 1 do
+    local workerId = (start + i) % maxWorkers
+    if redis.call('set', leasePrefix .. workerId, owner, 'nx', 'px', leaseMs) then
+        local last = tonumber(redis.call('hget', KEYS[1], tostring(workerId))) or 0
+        return {workerId, last}
+    end
+end
+return {}
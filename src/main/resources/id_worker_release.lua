@@ -0,0 +1,7 @@
+-- 停止时释放worker id租约，记录实际用到的时间戳
+-- KEYS[1] 租约key，KEYS[2] 各worker id已用时间戳上界（hash）
+if redis.call('get', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+redis.call('hset', KEYS[2], ARGV[2], ARGV[3])
+return redis.call('del', KEYS[1])
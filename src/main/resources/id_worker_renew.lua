@@ -0,0 +1,8 @@
+-- 续期worker id租约并记录已用时间戳上界，租约已经不属于自己时返回0
+-- KEYS[1] 租约key，KEYS[2] 各worker id已用时间戳上界（hash）
+if redis.call('get', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+redis.call('pexpire', KEYS[1], ARGV[2])
+redis.call('hset', KEYS[2], ARGV[3], ARGV[4])
+return 1
@@ -0,0 +1,6 @@
+-- 续期订单分区租约，租约已经不属于自己（过期后被其它节点获取）时返回0
+-- KEYS[1] 租约key，ARGV[1] 节点标识，ARGV[2] 租约时长（毫秒）
+if redis.call('get', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+return redis.call('pexpire', KEYS[1], ARGV[2])
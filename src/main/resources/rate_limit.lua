@@ -0,0 +1,14 @@
+-- 滑动窗口计数限流：用上一个固定窗口按剩余比例加权 + 当前窗口计数估算最近windowMs内的请求数
+-- KEYS[1] 当前窗口计数，KEYS[2] 上一个窗口计数
+local limit = tonumber(ARGV[1]) -- 窗口内允许的请求数
+local window = tonumber(ARGV[2]) -- 窗口长度（毫秒）
+local elapsed = tonumber(ARGV[3]) -- 当前窗口已经过去的时间（毫秒）
+local current = tonumber(redis.call('get', KEYS[1])) or 0
+local previous = tonumber(redis.call('get', KEYS[2])) or 0
+if previous * (window - elapsed) / window + current >= limit then
+    return 0
+end
+redis.call('incr', KEYS[1])
+-- 当前窗口的计数在下一个窗口还要作为previous使用
+redis.call('pexpire', KEYS[1], window * 2)
+return 1
@@ -1,8 +1,30 @@
 local voucherId = ARGV[1] -- 库存id
 local userId = ARGV[2] -- 用户id
 local orderId = ARGV[3] --订单id
+local partitions = tonumber(ARGV[4]) or 1 -- 订单stream分区数
+local partitionBy = ARGV[5] -- 分区依据：user/voucher
+local timeout = tonumber(ARGV[6]) or 0 -- 未支付订单超时取消时间（毫秒），0表示不取消
 local stockKey = 'seckill:stock:'..voucherId -- lua拼接:..
 local orderKey = 'seckill:order:'..voucherId
+-- 秒杀时间窗口（预热写入的hash，毫秒时间戳），没有预热信息的券不校验
+local window = redis.call('hmget', 'seckill:voucher:'..voucherId, 'begin', 'end')
+-- 当前时间（毫秒），只在需要时读取；time是非确定性命令，低版本redis需要在写命令之前开启效果复制
+local now = 0
+if window[1] or timeout > 0 then
+    redis.replicate_commands()
+    local time = redis.call('time')
+    now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+if window[1] then
+    -- 秒杀尚未开始
+    if now < tonumber(window[1]) then
+        return 3
+    end
+    -- 秒杀已经结束
+    if now > tonumber(window[2]) then
+        return 4
+    end
+end
 -- 库存不足
 if tonumber(redis.call('get', stockKey)) <= 0 then
     return 1;
@@ -14,6 +36,22 @@ end
 -- 下单
 redis.call('incrby', stockKey, -1) -- 库存-1
 redis.call('sadd', orderKey, userId) -- 保存用户
+-- 按userId或voucherId取模路由到分区stream，只有1个分区时仍使用stream.orders
+local streamKey = 'stream.orders'
+if partitions > 1 then
+    local routeId = userId
+    if partitionBy == 'voucher' then
+        routeId = voucherId
+    end
+    streamKey = streamKey..':'..(tonumber(routeId) % partitions)
+end
 -- 发送消息到stream消息队列
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+local entryId = redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 登记超时取消任务：score为截止时间，member为 订单id:券id:用户id:截止时间:消息id:stream
+-- （消息id和stream用于放弃取消前确认消息不在pending list或死信中，stream中可能含有冒号，放在最后）
+if timeout > 0 then
+    local deadline = now + timeout
+    redis.call('zadd', 'seckill:cancel:schedule', deadline,
+            orderId..':'..voucherId..':'..userId..':'..deadline..':'..entryId..':'..streamKey)
+end
+return 0
@@ -0,0 +1,17 @@
+-- 订单取消后归还redis库存并移除下单用户，同时完成已认领的任务
+-- KEYS[1] 已认领集合 seckill:cancel:claimed
+-- ARGV 每3个一组：券id、用户id、任务member
+local restored = 0
+for i = 1, #ARGV, 3 do
+    local voucherId = ARGV[i]
+    local userId = ARGV[i + 1]
+    local stockKey = 'seckill:stock:'..voucherId
+    local orderKey = 'seckill:order:'..voucherId
+    -- 任务已不在已认领集合中说明租约过期后由其它节点处理，由持有任务的节点归还，避免移除用户再次抢到的订单
+    -- 用户已不在集合中说明已经归还过，避免重复加库存
+    if redis.call('zrem', KEYS[1], ARGV[i + 2]) == 1 and redis.call('srem', orderKey, userId) == 1 then
+        redis.call('incrby', stockKey, 1)
+        restored = restored + 1
+    end
+end
+return restored
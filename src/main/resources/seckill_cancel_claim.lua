@@ -0,0 +1,20 @@
+-- 认领即将到期的订单超时取消任务
+-- KEYS[1] 调度集合 seckill:cancel:schedule，KEYS[2] 已认领集合 seckill:cancel:claimed
+local now = tonumber(ARGV[1]) -- 当前时间（毫秒）
+local horizon = tonumber(ARGV[2]) -- 认领未来多久内到期的任务
+local count = tonumber(ARGV[3]) -- 最多认领条数
+local lease = tonumber(ARGV[4]) -- 租约时长，截止时间之后超过租约仍未完成视为认领节点宕机
+-- 租约过期的任务放回调度集合，立即到期
+local expired = redis.call('zrangebyscore', KEYS[2], '-inf', now, 'LIMIT', 0, count)
+for _, member in ipairs(expired) do
+    redis.call('zrem', KEYS[2], member)
+    redis.call('zadd', KEYS[1], now, member)
+end
+-- 认领：从调度集合移到已认领集合，score改为截止时间 + 租约
+local tasks = redis.call('zrangebyscore', KEYS[1], '-inf', now + horizon, 'WITHSCORES', 'LIMIT', 0, count)
+for i = 1, #tasks, 2 do
+    redis.call('zrem', KEYS[1], tasks[i])
+    redis.call('zadd', KEYS[2], tonumber(tasks[i + 1]) + lease, tasks[i])
+end
+-- 返回 member1, deadline1, member2, deadline2 ...
+return tasks
@@ -0,0 +1,116 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheSerializer;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.SmileCacheCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存值编解码JMH对比：hutool（升级前的JSONUtil）、json（jackson）、smile（二进制）、smile-deflate（全部压缩），
+ * 对象为Shop和一篇较长的Blog，setup时输出各自编码后的字节数。默认不执行：
+ * mvn test -Dtest=CacheCodecBenchmark -Dbench.codec=true [-Dbench.threads=1] [-Dbench.forks=1]
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class CacheCodecBenchmark {
+
+    @Param({"hutool", "json", "smile", "smile-deflate"})
+    public String codec;
+
+    private CacheSerializer serializer;
+    private Shop shop;
+    private Blog blog;
+    private byte[] shopBytes;
+    private byte[] blogBytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        CacheProperties properties = new CacheProperties();
+        properties.getCodec().setType(codec.startsWith("smile") ? "smile" : "json");
+        properties.getCodec().setCompressThreshold(codec.endsWith("deflate") ? 1 : 0);
+        serializer = new CacheSerializer(Arrays.asList(new JsonCacheCodec(), new SmileCacheCodec()), properties);
+        shop = new Shop().setId(1024L).setName("103茶餐厅").setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L).setSold(4215).setComments(3035).setScore(37)
+                .setOpenHours("10:00-22:00").setCreateTime(LocalDateTime.now()).setUpdateTime(LocalDateTime.now());
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            content.append("生活就是一半烟火，一半诗意。手执烟火谋生活，心怀诗意以谋爱。");
+        }
+        blog = new Blog().setId(23L).setShopId(4L).setUserId(2L).setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent(content.toString()).setLiked(1).setComments(104)
+                .setCreateTime(LocalDateTime.now()).setUpdateTime(LocalDateTime.now());
+        shopBytes = encodeShop();
+        blogBytes = encodeBlog();
+        System.out.printf("%n[%s] shop=%d bytes, blog=%d bytes%n", codec, shopBytes.length, blogBytes.length);
+    }
+
+    @Benchmark
+    public byte[] encodeShop() {
+        return encode(shop);
+    }
+
+    @Benchmark
+    public Shop decodeShop() {
+        return serializer.decode(shopBytes, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeBlog() {
+        return encode(blog);
+    }
+
+    @Benchmark
+    public Blog decodeBlog() {
+        return serializer.decode(blogBytes, Blog.class);
+    }
+
+    // hutool按升级前的方式写入，读取走CacheSerializer的旧格式兼容路径
+    private byte[] encode(Object value) {
+        return "hutool".equals(codec)
+                ? JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8)
+                : serializer.encode(value);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "bench.codec", matches = "true")
+    void run() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getName())
+                .threads(Integer.getInteger("bench.threads", 1))
+                .forks(Integer.getInteger("bench.forks", 1))
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(2))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(2))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,100 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.config.IdProperties;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RedisWorker;
+import com.hmdp.utils.SnowflakeIdGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * id生成器JMH对比：redis（每个id一次INCR）、segment（号段）、snowflake（本地生成），连接嵌入式redis。默认不执行：
+ * mvn test -Dtest=IdGeneratorBenchmark -Dbench.id=true [-Dbench.threads=4] [-Dbench.forks=1]
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class IdGeneratorBenchmark {
+
+    @Param({"redis", "segment", "snowflake"})
+    public String mode;
+
+    private RedisServer redisServer;
+    private LettuceConnectionFactory connectionFactory;
+    private SnowflakeIdGenerator snowflake;
+    private IdGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        IdProperties properties = new IdProperties();
+        properties.setMode(mode);
+        if ("snowflake".equals(mode)) {
+            snowflake = new SnowflakeIdGenerator(template, properties);
+            snowflake.init();
+            generator = snowflake;
+        } else {
+            generator = new RedisWorker(template, properties);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (snowflake != null) {
+            snowflake.destroy();
+        }
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return generator.nextId("order");
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "bench.id", matches = "true")
+    void run() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(IdGeneratorBenchmark.class.getName() + ".nextId")
+                .threads(Integer.getInteger("bench.threads", 4))
+                .forks(Integer.getInteger("bench.forks", 1))
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(2))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(2))
+                .build();
+        new Runner(options).run();
+    }
+}
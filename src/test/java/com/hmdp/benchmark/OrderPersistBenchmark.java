@@ -0,0 +1,96 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_LOCK_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 订单落库吞吐对比：redisson锁 + count查询 与 唯一索引幂等insert。
+ * 使用application.yaml中配置的MySQL和redis，tb_voucher_order需要uk_user_voucher唯一索引，默认不执行：
+ * mvn test -Dtest=OrderPersistBenchmark -Dbench.persist=true [-Dbench.orders=5000] [-Dbench.threads=16]
+ * 会创建两张临时秒杀券（voucher_id为bench.voucherId和bench.voucherId+1，默认900000），结束后删除相关数据。
+ */
+@EnabledIfSystemProperty(named = "bench.persist", matches = "true")
+@SpringBootTest(properties = "hmdp.seckill.order.consumer-threads=0")
+class OrderPersistBenchmark {
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private RedissonClient redissonClient;
+
+    private final int orders = Integer.getInteger("bench.orders", 5000);
+    private final int threads = Integer.getInteger("bench.threads", 16);
+    private final long voucherId = Long.getLong("bench.voucherId", 900000L);
+
+    @Test
+    void compareLockAndIdempotent() throws InterruptedException {
+        run("lock", voucherId, order -> {
+            RLock lock = redissonClient.getLock(SECKILL_ORDER_LOCK_KEY + order.getUserId());
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                voucherOrderService.createVoucherOrder(order);
+            } finally {
+                lock.unlock();
+            }
+        });
+        run("idempotent", voucherId + 1, voucherOrderService::createVoucherOrderIdempotent);
+    }
+
+    private void run(String name, long voucherId, java.util.function.Consumer<VoucherOrder> persist)
+            throws InterruptedException {
+        seckillVoucherService.removeById(voucherId);
+        voucherOrderService.remove(voucherOrderService.query().eq("voucher_id", voucherId).getWrapper());
+        SeckillVoucher voucher = new SeckillVoucher().setVoucherId(voucherId).setStock(orders);
+        seckillVoucherService.save(voucher);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < orders) {
+                    persist.accept(new VoucherOrder()
+                            .setId(voucherId * 1000000 + i)
+                            .setUserId((long) i)
+                            .setVoucherId(voucherId));
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        executor.shutdown();
+
+        int saved = voucherOrderService.query().eq("voucher_id", voucherId).count();
+        int stock = seckillVoucherService.getById(voucherId).getStock();
+        System.out.printf("%-12s orders=%d saved=%d elapsed=%dms throughput=%d orders/s%n",
+                name, orders, saved, elapsedMs, orders * 1000L / Math.max(elapsedMs, 1));
+        assertEquals(orders, saved);
+        assertEquals(0, stock);
+
+        voucherOrderService.remove(voucherOrderService.query().eq("voucher_id", voucherId).getWrapper());
+        seckillVoucherService.removeById(voucherId);
+    }
+}
@@ -0,0 +1,106 @@
+package com.hmdp.benchmark;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * seckill.lua 的吞吐，同时校验不超卖、一人一单。需要一个独立的redis，默认不执行：
+ * mvn test -Dtest=SeckillScriptBenchmark -Dbench.redis.host=127.0.0.1 [-Dbench.redis.port=6379]
+ * [-Dbench.threads=64] [-Dbench.users=200000] [-Dbench.stock=100000]
+ * 会清空 bench.redis.database（默认15）库。
+ */
+@EnabledIfSystemProperty(named = "bench.redis.host", matches = ".+")
+class SeckillScriptBenchmark {
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT = new DefaultRedisScript<>();
+    static {
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    private final int threads = Integer.getInteger("bench.threads", 64);
+    private final int users = Integer.getInteger("bench.users", 200000);
+    private final int stock = Integer.getInteger("bench.stock", 100000);
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate redis;
+
+    @BeforeEach
+    void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("bench.redis.host"), Integer.getInteger("bench.redis.port", 6379));
+        config.setDatabase(Integer.getInteger("bench.redis.database", 15));
+        String password = System.getProperty("bench.redis.password");
+        if (password != null) {
+            config.setPassword(password);
+        }
+        factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        redis = new StringRedisTemplate(factory);
+        redis.execute(connection -> {
+            connection.flushDb();
+            return null;
+        }, true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        factory.destroy();
+    }
+
+    @Test
+    void seckillScript() throws InterruptedException {
+        redis.opsForValue().set("seckill:stock:1", String.valueOf(stock));
+        run("single-key", 1L);
+    }
+
+    private void run(String name, Long voucherId) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger nextUser = new AtomicInteger();
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicLong orderId = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                int user;
+                // 每个用户请求两次，第二次必须被一人一单拦截
+                while ((user = nextUser.getAndIncrement()) < users * 2) {
+                    Long result = redis.execute(SECKILL_SCRIPT, Collections.emptyList(),
+                            voucherId.toString(), String.valueOf(user % users),
+                            String.valueOf(orderId.incrementAndGet()), "1", "user");
+                    if (result != null && result == 0) {
+                        accepted.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        executor.shutdown();
+
+        // 不超卖、一人一单
+        int expected = Math.min(stock, users);
+        assertEquals(expected, accepted.get(), name + " 成交数");
+        assertEquals(Long.valueOf(expected), redis.opsForSet().size("seckill:order:" + voucherId), name + " 下单用户数");
+        System.out.printf("%-16s requests=%d accepted=%d elapsed=%dms throughput=%d req/s%n",
+                name, users * 2, accepted.get(), elapsedMs, users * 2L * 1000 / Math.max(elapsedMs, 1));
+    }
+}
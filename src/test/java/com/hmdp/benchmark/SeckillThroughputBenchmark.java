@@ -0,0 +1,252 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀全链路压测：启动整个应用（嵌入式redis + H2内存库，不依赖外部环境），
+ * 并发调用 POST /voucher-order/seckill/{id}，统计请求耗时分位数、抢单成功吞吐、订单落库完成耗时，
+ * 并校验没有超卖、没有重复订单、抢到的订单全部落库。默认不执行：
+ * mvn test -Dtest=SeckillThroughputBenchmark -Dbench.seckill=true
+ * [-Dbench.threads=64] [-Dbench.users=20000] [-Dbench.stock=5000] [-Dbench.attempts=1] [-Dbench.drainTimeoutSec=120]
+ * 应用配置可以用系统属性覆盖，例如 -Dhmdp.seckill.order.batch-enabled=false、-Dhmdp.seckill.order.persist-mode=idempotent，
+ * 改动seckill.lua或VoucherOrderServiceImpl前后各跑一次对比输出。
+ */
+@EnabledIfSystemProperty(named = "bench.seckill", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.url=jdbc:h2:mem:bench;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.datasource.schema=classpath:benchmark/schema.sql",
+        "spring.datasource.initialization-mode=always",
+        "logging.level.com.hmdp=info"
+})
+class SeckillThroughputBenchmark {
+    private static RedisServer redisServer;
+
+    @LocalServerPort
+    private int port;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    private final int threads = Integer.getInteger("bench.threads", 64);
+    private final int users = Integer.getInteger("bench.users", 20000);
+    private final int stock = Integer.getInteger("bench.stock", 5000);
+    // 每个用户的请求次数，大于1时同时压测一人一单的重复拦截
+    private final int attempts = Integer.getInteger("bench.attempts", 1);
+    private final long drainTimeoutSec = Long.getLong("bench.drainTimeoutSec", 120L);
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) throws IOException {
+        int redisPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            redisPort = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(redisPort);
+        redisServer.start();
+        registry.add("spring.redis.host", () -> "127.0.0.1");
+        registry.add("spring.redis.port", () -> redisPort);
+        registry.add("spring.redis.password", () -> "");
+        registry.add("hmdp.redisson.address", () -> "redis://127.0.0.1:" + redisPort);
+        registry.add("hmdp.redisson.password", () -> "");
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @Test
+    void seckill() throws Exception {
+        Long voucherId = createVoucher();
+        loginUsers();
+
+        // 压测
+        int requests = users * attempts;
+        long[] latencies = new long[requests];
+        Map<Long, Long> accepted = new ConcurrentHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger limited = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    long userId = i % users + 1;
+                    long start = System.nanoTime();
+                    try {
+                        JSONObject result = seckill(voucherId, userId);
+                        if (result == null) {
+                            limited.incrementAndGet();
+                        } else if (result.getBool("success", false)) {
+                            accepted.put(result.getLong("data"), userId);
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - start;
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        long loadEnd = System.nanoTime();
+        executor.shutdown();
+
+        // 等待异步订单全部落库
+        long deadline = loadEnd + TimeUnit.SECONDS.toNanos(drainTimeoutSec);
+        int saved = countOrders(voucherId);
+        while (saved < accepted.size() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            saved = countOrders(voucherId);
+        }
+        long drained = System.nanoTime();
+
+        long loadMs = TimeUnit.NANOSECONDS.toMillis(loadEnd - begin);
+        Arrays.sort(latencies);
+        System.out.printf("seckill users=%d attempts=%d stock=%d threads=%d requests=%d errors=%d rateLimited=%d%n",
+                users, attempts, stock, threads, requests, errors.get(), limited.get());
+        System.out.printf("latency    p50=%.2fms p90=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n",
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6);
+        System.out.printf("throughput %d requests/s, accepted=%d, %d accepted orders/s%n",
+                requests * 1000L / Math.max(loadMs, 1), accepted.size(), accepted.size() * 1000L / Math.max(loadMs, 1));
+        System.out.printf("drain      saved=%d, %dms after load finished, %dms in total%n",
+                saved, TimeUnit.NANOSECONDS.toMillis(drained - loadEnd), TimeUnit.NANOSECONDS.toMillis(drained - begin));
+
+        // 校验：不超卖、一人一单、抢到的订单全部落库
+        List<VoucherOrder> orders = voucherOrderService.query().eq("voucher_id", voucherId).list();
+        Set<Long> orderUsers = orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> orderIds = orders.stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        int remaining = seckillVoucherService.getById(voucherId).getStock();
+        System.out.printf("check      orders=%d distinctUsers=%d dbStock=%d acceptedUsers=%d%n",
+                orders.size(), orderUsers.size(), remaining, new HashSet<>(accepted.values()).size());
+        assertEquals(0, errors.get(), "请求异常");
+        assertTrue(accepted.size() <= stock, "超卖");
+        assertEquals(accepted.size(), new HashSet<>(accepted.values()).size(), "同一用户抢到多单");
+        assertEquals(orders.size(), orderUsers.size(), "重复订单落库");
+        assertEquals(accepted.keySet(), orderIds, "抢到的订单与落库订单不一致");
+        assertEquals(stock - orders.size(), remaining, "DB库存与订单数不一致");
+    }
+
+    private Long createVoucher() {
+        Voucher voucher = new Voucher()
+                .setShopId(1L)
+                .setTitle("压测秒杀券")
+                .setPayValue(100L)
+                .setActualValue(1000L)
+                .setType(1)
+                .setStock(stock)
+                .setBeginTime(LocalDateTime.now().minusMinutes(1))
+                .setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    // 直接在redis中写入登录态，token为 bench-{userId}
+    private void loginUsers() {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long userId = 1; userId <= users; userId++) {
+                login(connection, userId);
+            }
+            return null;
+        });
+    }
+
+    private void login(RedisConnection connection, long userId) {
+        Map<byte[], byte[]> user = new HashMap<>();
+        user.put(bytes("id"), bytes(String.valueOf(userId)));
+        user.put(bytes("nickName"), bytes("bench" + userId));
+        user.put(bytes("icon"), bytes(""));
+        connection.hMSet(bytes(LOGIN_USER_KEY + "bench-" + userId), user);
+    }
+
+    // 被限流（429）时返回null
+    private JSONObject seckill(Long voucherId, long userId) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + port + "/voucher-order/seckill/" + voucherId).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("authorization", "bench-" + userId);
+        if (connection.getResponseCode() == 429) {
+            connection.getErrorStream().close();
+            return null;
+        }
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                body.write(buffer, 0, n);
+            }
+            return JSONUtil.parseObj(new String(body.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private int countOrders(Long voucherId) {
+        return voucherOrderService.query().eq("voucher_id", voucherId).count();
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmdp.seckill;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分层时间轮：格子定位、层间降级、停止时取出未到期任务
+ */
+class HierarchicalTimingWheelTest {
+    // 最底层每格10ms、8格（一圈80ms），第二层每格80ms（一圈640ms），第三层每格640ms
+    private static final long TICK = 10;
+    private static final int SIZE = 8;
+    private static final long START = 1000;
+
+    private final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, SIZE, START);
+
+    @Test
+    void rejectsTaskDueWithinCurrentTick() {
+        assertFalse(wheel.add("now", START));
+        assertFalse(wheel.add("same-tick", START + TICK - 1));
+        assertTrue(wheel.add("next-tick", START + TICK));
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    void expiresAtStartOfTickContainingDeadline() {
+        assertTrue(wheel.add("a", 1025));
+        assertEquals(Collections.emptyList(), advance(1019));
+        assertEquals(Collections.singletonList("a"), advance(1020));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void expiresInDeadlineOrderWithinLowestLevel() {
+        wheel.add("c", 1070);
+        wheel.add("a", 1010);
+        wheel.add("b", 1035);
+        wheel.add("b2", 1030);
+        assertEquals(Collections.singletonList("a"), advance(1010));
+        assertEquals(Collections.emptyList(), advance(1029));
+        assertEquals(Arrays.asList("b", "b2"), sorted(advance(1030)));
+        assertEquals(Collections.singletonList("c"), advance(1079));
+    }
+
+    @Test
+    void reusesBucketOnNextRound() {
+        wheel.add("first", 1020);
+        assertEquals(Collections.singletonList("first"), advance(1020));
+        // 一圈之后落在同一个格子
+        wheel.add("second", 1020 + TICK * SIZE);
+        assertEquals(Collections.emptyList(), advance(1099));
+        assertEquals(Collections.singletonList("second"), advance(1100));
+    }
+
+    @Test
+    void cascadesFromOverflowLevelBeforeExpiring() {
+        // 超出最底层一圈，放到第二层（每格80ms），第二层格子在1440到期后降到最底层的1500格
+        assertTrue(wheel.add("far", 1500));
+        assertEquals(Collections.emptyList(), advance(1440));
+        assertEquals(1, wheel.size());
+        assertEquals(Collections.emptyList(), advance(1499));
+        assertEquals(Collections.singletonList("far"), advance(1500));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cascadesThroughThreeLevels() {
+        // 超出第二层一圈（640ms），放到第三层
+        long deadline = START + 5000;
+        assertTrue(wheel.add("farthest", deadline));
+        assertTrue(wheel.add("near", START + 50));
+        for (long now = START; now < deadline; now += TICK) {
+            List<String> expired = advance(now);
+            if (now == START + 50) {
+                assertEquals(Collections.singletonList("near"), expired);
+            } else {
+                assertEquals(Collections.emptyList(), expired, "now=" + now);
+            }
+        }
+        assertEquals(Collections.singletonList("farthest"), advance(deadline));
+    }
+
+    @Test
+    void expiresEverythingWhenClockJumps() {
+        wheel.add("a", 1030);
+        wheel.add("b", 1500);
+        wheel.add("c", 9000);
+        assertEquals(Arrays.asList("a", "b", "c"), advance(20000));
+        assertEquals(0, wheel.size());
+        // 推进后的新任务按新的当前时间定位
+        assertFalse(wheel.add("late", 20005));
+        assertTrue(wheel.add("later", 20010));
+        assertEquals(Collections.singletonList("later"), advance(20010));
+    }
+
+    @Test
+    void drainReturnsTasksCancelledOnStop() {
+        wheel.add("a", 1030);
+        wheel.add("b", 1500);
+        wheel.add("c", 9000);
+        assertEquals(Collections.singletonList("a"), advance(1030));
+        List<String> drained = new ArrayList<>();
+        wheel.drain(drained::add);
+        assertEquals(Arrays.asList("b", "c"), sorted(drained));
+        assertEquals(0, wheel.size());
+        // 取出的任务不会再到期
+        assertEquals(Collections.emptyList(), advance(20000));
+    }
+
+    private List<String> advance(long now) {
+        List<String> expired = new ArrayList<>();
+        wheel.advance(now, expired::add);
+        return expired;
+    }
+
+    private static List<String> sorted(List<String> list) {
+        List<String> copy = new ArrayList<>(list);
+        Collections.sort(copy);
+        return copy;
+    }
+}